@@ -0,0 +1,81 @@
+package com.icecream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The "which courses need signing now" selection in checkAndSignIn, through DayCourses.nextToSign
+ * and through the original loop that parsed both times of every course on every tick
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ActiveCourseBenchmark {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final long LEAD_MILLIS = 10 * 60 * 1000;
+
+    @Param({"10", "100", "1000"})
+    int courses;
+
+    private DayCourses day;
+    private List<Course> schedule;
+    private Set<String> signed;
+    private long nowMillis;
+    private LocalDateTime now;
+
+    @Setup
+    public void setUp() {
+        schedule = BenchData.schedule(courses);
+        day = DayCourses.EMPTY.reload(CourseIndex.of(schedule, LEAD_MILLIS), true);
+        signed = new HashSet<>();
+        // Sign every other course so the unsigned check does real work
+        for (int i = 0; i < day.courses.size(); i += 2) {
+            signed.add(day.courses.get(i).id);
+            day = day.withSigned(i);
+        }
+        Course middle = schedule.get(schedule.size() / 2);
+        nowMillis = middle.beginMillis + 60_000;
+        now = LocalDateTime.ofInstant(Instant.ofEpochMilli(nowMillis), ZoneId.systemDefault());
+    }
+
+    @Benchmark
+    public void dayCourses(Blackhole blackhole) {
+        DayCourses current = day;
+        for (int i = current.nextToSign(0, nowMillis); i >= 0; i = current.nextToSign(i + 1, nowMillis)) {
+            blackhole.consume(current.courses.get(i));
+        }
+    }
+
+    @Benchmark
+    public void parsePerTick(Blackhole blackhole) {
+        for (Course course : schedule) {
+            LocalDateTime courseStart = LocalDateTime.parse(course.classBeginTime, FORMAT).minusMinutes(10);
+            LocalDateTime courseEnd = LocalDateTime.parse(course.classEndTime, FORMAT);
+            if (now.isAfter(courseStart) && now.isBefore(courseEnd) && !signed.contains(course.id)) {
+                blackhole.consume(course);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.icecream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic inputs shaped like the real SSO and iClass responses
+ */
+final class BenchData {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private BenchData() {
+    }
+
+    /**
+     * get_stu_course_sched.action result entries spread over today's teaching hours
+     */
+    static JSONArray scheduleJson(int courses) {
+        LocalDateTime first = LocalDate.now().atTime(8, 0);
+        long spacingSeconds = Math.max(60, 14 * 3600 / Math.max(1, courses));
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < courses; i++) {
+            LocalDateTime begin = first.plusSeconds(i * spacingSeconds);
+            JSONObject course = new JSONObject();
+            course.put("id", String.valueOf(1_000_000 + i));
+            course.put("courseId", String.valueOf(50_000 + i % 40));
+            course.put("courseName", "课程" + (i % 40));
+            course.put("classBeginTime", begin.format(FORMAT));
+            course.put("classEndTime", begin.plusMinutes(95).format(FORMAT));
+            course.put("classroomName", "主M" + (100 + i % 300));
+            course.put("teacherName", "教师" + (i % 80));
+            course.put("signStatus", "0");
+            result.put(course);
+        }
+        return result;
+    }
+
+    static String scheduleResponse(int courses) {
+        JSONObject response = new JSONObject();
+        response.put("STATUS", "0");
+        response.put("result", scheduleJson(courses));
+        return response.toString();
+    }
+
+    static List<Course> schedule(int courses) {
+        return new ArrayList<>(Course.listFromJson(scheduleJson(courses)));
+    }
+
+    /**
+     * An SSO login page of roughly the real size, with the execution input about halfway down
+     */
+    static String loginPage() {
+        StringBuilder page = new StringBuilder(32 * 1024);
+        page.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\"/>\n<title>北京航空航天大学统一身份认证</title>\n");
+        for (int i = 0; i < 120; i++) {
+            page.append("<link rel=\"stylesheet\" href=\"/static/css/style").append(i).append(".css?v=20240901\"/>\n");
+        }
+        page.append("</head>\n<body>\n<form id=\"fm1\" action=\"/login\" method=\"post\">\n");
+        page.append("<input name=\"username\" type=\"text\"/>\n<input name=\"password\" type=\"password\"/>\n");
+        page.append("<input name=\"execution\" value=\"");
+        for (int i = 0; i < 40; i++) {
+            page.append("e1s1a7f3c9d2b8e4f6a0c5d7e9b1f3a5c7d9e2b4f6a8c0d1e3f5a7b9c2d4e6f8");
+        }
+        page.append("\"/>\n<input name=\"_eventId\" value=\"submit\"/>\n</form>\n");
+        for (int i = 0; i < 200; i++) {
+            page.append("<script src=\"/static/js/module").append(i).append(".js\"></script>\n");
+        }
+        page.append("</body>\n</html>\n");
+        return page.toString();
+    }
+}
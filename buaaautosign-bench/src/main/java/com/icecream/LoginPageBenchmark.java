@@ -0,0 +1,70 @@
+package com.icecream;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Token extraction from the SSO login page and cookies, as done by login
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginPageBenchmark {
+    private ByteArrayEntity page;
+    private CookieStore cookies;
+
+    @Setup
+    public void setUp() {
+        page = new ByteArrayEntity(BenchData.loginPage().getBytes(StandardCharsets.UTF_8), ContentType.TEXT_HTML.withCharset(StandardCharsets.UTF_8));
+        cookies = new BasicCookieStore();
+        String[][] values = {{"JSESSIONID", "3F2A9C1D7E5B4A6C8D0E2F4A6B8C0D2E"}, {"_7da9a", "http://10.200.21.33:8080"}, {"route", "a1b2c3d4"}};
+        for (String[] value : values) {
+            BasicClientCookie cookie = new BasicClientCookie(value[0], value[1]);
+            cookie.setDomain("sso.buaa.edu.cn");
+            cookie.setPath("/");
+            cookies.addCookie(cookie);
+        }
+    }
+
+    @Benchmark
+    public void streamingParser(Blackhole blackhole) throws IOException {
+        blackhole.consume(LoginPageParser.readExecution(page));
+        blackhole.consume(LoginPageParser.findCookieIp(cookies.getCookies()));
+    }
+
+    /**
+     * The extraction login used before: whole-page String, patterns compiled per call, stringified cookies
+     */
+    @Benchmark
+    public void wholePageRegex(Blackhole blackhole) throws IOException {
+        String responseBody = EntityUtils.toString(page);
+        Matcher matcherIp = Pattern.compile("http://\\d+\\.\\d+\\.\\d+\\.\\d+:\\d+").matcher(cookies.getCookies().toString());
+        blackhole.consume(matcherIp.find() ? matcherIp.group() : null);
+        Matcher matcherEx = Pattern.compile("<input name=\"execution\" value=\"([^\"]+)\"/>").matcher(responseBody);
+        blackhole.consume(matcherEx.find() ? matcherEx.group(1) : null);
+    }
+}
@@ -0,0 +1,45 @@
+package com.icecream;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a get_stu_course_sched.action response body into the account's course index
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScheduleParsingBenchmark {
+    @Param({"5", "50"})
+    int courses;
+
+    private String body;
+
+    @Setup
+    public void setUp() {
+        body = BenchData.scheduleResponse(courses);
+    }
+
+    @Benchmark
+    public CourseIndex parseSchedule() {
+        JSONObject jsonData = new JSONObject(body);
+        List<Course> schedule = Course.listFromJson(jsonData.getJSONArray("result"));
+        return CourseIndex.of(schedule, 10 * 60 * 1000);
+    }
+}
@@ -0,0 +1,115 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full tick over N accounts against an in-process stub server: each account fetches its schedule
+ * through the shared pooled client, builds its course index and signs in to the active course
+ * through the async client. The upstream limits are raised so the stub, not the limiter, is measured,
+ * and the stub disables Nagle's algorithm so delayed ACKs do not dominate the result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Dsun.net.httpserver.nodelay=true",
+        "-Dautosign.limit.iclass-api.rate=1000000", "-Dautosign.limit.iclass-api.maxRate=1000000",
+        "-Dautosign.limit.iclass-api.concurrency=1024", "-Dautosign.limit.iclass-api.maxConcurrency=1024",
+        "-Dautosign.limit.iclass-sign.rate=1000000", "-Dautosign.limit.iclass-sign.maxRate=1000000",
+        "-Dautosign.limit.iclass-sign.concurrency=1024", "-Dautosign.limit.iclass-sign.maxConcurrency=1024"})
+@State(Scope.Benchmark)
+public class SimulatedTickBenchmark {
+    @Param({"100", "1000"})
+    int accounts;
+
+    private HttpServer server;
+    private TickEngine tickEngine;
+    private List<StudentAccount> studentAccounts;
+    private URI scheduleUri;
+    private URI signInUri;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        byte[] schedule = BenchData.scheduleResponse(6).getBytes(StandardCharsets.UTF_8);
+        byte[] signed = "{\"STATUS\":\"0\"}".getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/schedule", exchange -> respond(exchange, schedule));
+        server.createContext("/sign", exchange -> respond(exchange, signed));
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        scheduleUri = URI.create(base + "/schedule");
+        signInUri = URI.create(base + "/sign");
+
+        tickEngine = TickEngine.fromConfig();
+        studentAccounts = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            studentAccounts.add(new StudentAccount(String.valueOf(20_370_000 + i), "password"));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        tickEngine.shutdown();
+    }
+
+    @Benchmark
+    public TickEngine.TickReport tick() {
+        return tickEngine.runTick(studentAccounts, account -> {
+            try (CloseableHttpResponse response = SharedHttpClient.execute(new HttpGet(scheduleUri), account.newHttpContext())) {
+                JSONObject jsonData = new JSONObject(EntityUtils.toString(response.getEntity()));
+                CourseIndex index = CourseIndex.of(Course.listFromJson(jsonData.getJSONArray("result")), 10 * 60 * 1000);
+                account.replaceCourses(index, true);
+                long now = index.get(0).beginMillis;
+                for (int i = index.activeFrom(now), to = index.activeTo(now); i < to; i++) {
+                    if (index.isActive(i, now)) {
+                        AsyncSignInClient.post(signInUri).join();
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+}
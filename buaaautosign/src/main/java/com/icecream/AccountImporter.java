@@ -0,0 +1,158 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk account import: parse a CSV or JSON batch, check every login with a bounded number of
+ * parallel logins, then register all accounts that passed with one write to the account store
+ */
+final class AccountImporter {
+    static final int CONCURRENCY = Config.integer("autosign.import.concurrency", 8);
+
+    private AccountImporter() {
+    }
+
+    /**
+     * Outcome of one import
+     */
+    static final class Result {
+        final List<String> added = new ArrayList<>();
+        final List<String> existing = new ArrayList<>();
+        final List<String> failed = new ArrayList<>();
+        final List<String> reasons = new ArrayList<>();
+
+        void fail(String studentNumber, String reason) {
+            failed.add(AttendanceSystem.maskStudentNumber(studentNumber));
+            reasons.add(reason);
+        }
+
+        JSONObject toJson() {
+            JSONArray failures = new JSONArray();
+            for (int i = 0; i < failed.size(); i++) {
+                failures.put(new JSONObject().put("student_number", failed.get(i)).put("reason", reasons.get(i)));
+            }
+            JSONObject json = new JSONObject();
+            json.put("added", added);
+            json.put("existing", existing);
+            json.put("failed", failures);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("导入完成：新增 " + added.size() + " 个，已存在 " + existing.size()
+                    + " 个，失败 " + failed.size() + " 个");
+            for (int i = 0; i < failed.size(); i++) {
+                builder.append("\n  ").append(failed.get(i)).append(": ").append(reasons.get(i));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Student number to password, from CSV lines "student_number,password" (a header line and
+     * lines starting with # are skipped) or JSON in the account file format or as a bare array
+     */
+    static Map<String, String> parse(String content, boolean json) {
+        Map<String, String> passwords = new LinkedHashMap<>();
+        String trimmed = content.trim();
+        if (json || trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            Object value = new JSONTokener(trimmed).nextValue();
+            JSONArray accounts = value instanceof JSONObject ? ((JSONObject) value).getJSONArray("accounts") : (JSONArray) value;
+            for (int i = 0; i < accounts.length(); i++) {
+                JSONObject account = accounts.getJSONObject(i);
+                passwords.put(account.getString("student_number").trim(), account.getString("password"));
+            }
+            return passwords;
+        }
+        for (String line : trimmed.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            if (comma < 0) {
+                throw new IllegalArgumentException("CSV 行缺少逗号: " + line);
+            }
+            String studentNumber = line.substring(0, comma).trim();
+            if (passwords.isEmpty() && studentNumber.equalsIgnoreCase("student_number")) {
+                continue;
+            }
+            passwords.put(studentNumber, line.substring(comma + 1).trim());
+        }
+        return passwords;
+    }
+
+    /**
+     * Import a batch. With validate set, each account must log in successfully to be added;
+     * the logins run at most CONCURRENCY at a time. Accounts already registered are skipped.
+     */
+    static Result importBatch(Map<String, String> passwords, boolean validate) throws IOException {
+        Result result = new Result();
+        List<StudentAccount> candidates = new ArrayList<>(passwords.size());
+        for (Map.Entry<String, String> entry : passwords.entrySet()) {
+            String studentNumber = entry.getKey();
+            if (studentNumber.isEmpty() || entry.getValue().isEmpty()) {
+                result.fail(studentNumber, "学号或密码为空");
+            } else if (AttendanceSystem.studentAccounts.containsKey(studentNumber)) {
+                result.existing.add(AttendanceSystem.maskStudentNumber(studentNumber));
+            } else {
+                candidates.add(new StudentAccount(studentNumber, entry.getValue()));
+            }
+        }
+
+        List<StudentAccount> valid = validate ? validateLogins(candidates, result) : candidates;
+        Set<StudentAccount> added = new HashSet<>(AttendanceSystem.addAccounts(valid));
+        for (StudentAccount account : valid) {
+            // Accounts missing from added were registered by someone else while the logins ran
+            (added.contains(account) ? result.added : result.existing).add(AttendanceSystem.maskStudentNumber(account.studentNumber));
+        }
+        Log.info("accounts", null, "批量导入：新增 {}，已存在 {}，失败 {}", result.added.size(), result.existing.size(), result.failed.size());
+        return result;
+    }
+
+    private static List<StudentAccount> validateLogins(List<StudentAccount> candidates, Result result) {
+        List<StudentAccount> valid = new ArrayList<>(candidates.size());
+        if (candidates.isEmpty()) {
+            return valid;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(CONCURRENCY, candidates.size())),
+                TickEngine.namedDaemonThreads("import"));
+        try {
+            List<Future<?>> logins = new ArrayList<>(candidates.size());
+            for (StudentAccount account : candidates) {
+                logins.add(pool.submit(() -> AttendanceSystem.login(account)));
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                StudentAccount account = candidates.get(i);
+                try {
+                    logins.get(i).get();
+                } catch (Exception e) {
+                    account.isLoggedIn = false;
+                }
+                if (account.isLoggedIn) {
+                    valid.add(account);
+                } else {
+                    result.fail(account.studentNumber, "登录失败");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return valid;
+    }
+}
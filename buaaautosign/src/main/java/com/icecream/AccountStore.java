@@ -0,0 +1,314 @@
+package com.icecream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Persists accounts as a snapshot in the original student_accounts.json format plus an append-only
+ * journal of later adds and removes. Each change costs one synced journal line; once the journal
+ * grows past a threshold the snapshot is rewritten through a temporary file and an atomic rename.
+ * Shard instances share both files, so every read and write holds an OS lock on a sibling lock file,
+ * and compaction merges what is on disk rather than what this instance happens to have loaded.
+ */
+final class AccountStore {
+    static final int COMPACT_ENTRIES = Config.integer("autosign.accounts.compactEntries", 1000);
+
+    private static final String OP_ADD = "add";
+    private static final String OP_REMOVE = "remove";
+
+    private final Path snapshot;
+    private final Path journal;
+    private final Path lockFile;
+    private FileChannel journalChannel;
+    private Object journalKey; // identity of the journal file journalChannel has open
+    private int journalEntries;
+
+    AccountStore(String snapshotFile, String journalFile) {
+        this.snapshot = Paths.get(snapshotFile);
+        this.journal = Paths.get(journalFile);
+        this.lockFile = snapshot.resolveSibling(snapshot.getFileName() + ".lock");
+    }
+
+    private interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Run with the files locked against other instances; threads of this one are already serialized
+     * by the monitor, which the JVM requires since it cannot hold the same file lock twice
+     */
+    private <T> T locked(LockedAction<T> action) throws IOException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                return action.run();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Stream the snapshot one account at a time, then replay the journal on top of it.
+     * A torn last journal line from a crash is cut off so later appends start on a clean line.
+     * Returns false if there was nothing to load.
+     */
+    synchronized boolean load(BiConsumer<String, String> onAdd, Consumer<String> onRemove) throws IOException {
+        return locked(() -> read(onAdd, onRemove));
+    }
+
+    private boolean read(BiConsumer<String, String> onAdd, Consumer<String> onRemove) throws IOException {
+        boolean found = false;
+        if (Files.exists(snapshot)) {
+            found = true;
+            try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+                readSnapshot(new JSONTokener(reader), onAdd);
+            }
+        }
+        if (Files.exists(journal)) {
+            found = true;
+            replayJournal(onAdd, onRemove);
+        }
+        return found;
+    }
+
+    private static void readSnapshot(JSONTokener tokener, BiConsumer<String, String> onAdd) {
+        if (tokener.nextClean() != '{') {
+            throw tokener.syntaxError("账户文件应以 { 开头");
+        }
+        while (true) {
+            char c = tokener.nextClean();
+            if (c == '}' || c == 0) {
+                return;
+            }
+            if (c == ',') {
+                continue;
+            }
+            tokener.back();
+            String key = String.valueOf(tokener.nextValue());
+            if (tokener.nextClean() != ':') {
+                throw tokener.syntaxError("缺少 :");
+            }
+            if (!"accounts".equals(key)) {
+                tokener.nextValue();
+                continue;
+            }
+            if (tokener.nextClean() != '[') {
+                throw tokener.syntaxError("accounts 应为数组");
+            }
+            // Only one account object is held at a time
+            while (true) {
+                c = tokener.nextClean();
+                if (c == ']') {
+                    break;
+                }
+                if (c == ',') {
+                    continue;
+                }
+                tokener.back();
+                JSONObject account = (JSONObject) tokener.nextValue();
+                onAdd.accept(account.getString("student_number"), account.getString("password"));
+            }
+        }
+    }
+
+    private void replayJournal(BiConsumer<String, String> onAdd, Consumer<String> onRemove) throws IOException {
+        byte[] bytes = Files.readAllBytes(journal);
+        int lineStart = 0;
+        int entries = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+            if (!line.isEmpty()) {
+                try {
+                    apply(new JSONObject(line), onAdd, onRemove);
+                    entries++;
+                } catch (JSONException e) {
+                    Log.warn("accounts", null, "跳过损坏的账户日志记录: {}", e.getMessage());
+                }
+            }
+            lineStart = i + 1;
+        }
+        if (lineStart < bytes.length) {
+            // Half-written line from a crash; drop it so the next append starts cleanly
+            Log.warn("accounts", null, "账户日志末尾有未写完的记录，已丢弃 {} 字节", bytes.length - lineStart);
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                channel.truncate(lineStart);
+                channel.force(true);
+            }
+        }
+        journalEntries = entries;
+    }
+
+    private static void apply(JSONObject entry, BiConsumer<String, String> onAdd, Consumer<String> onRemove) {
+        String studentNumber = entry.getString("student_number");
+        if (OP_REMOVE.equals(entry.getString("op"))) {
+            onRemove.accept(studentNumber);
+        } else {
+            onAdd.accept(studentNumber, entry.getString("password"));
+        }
+    }
+
+    /**
+     * Record a new account, or a new password for an existing one
+     */
+    synchronized void add(String studentNumber, String password) throws IOException {
+        append(addEntry(studentNumber, password).append('\n'));
+    }
+
+    /**
+     * Record a batch of accounts with a single write and sync
+     */
+    synchronized void addAll(Map<String, String> passwords) throws IOException {
+        if (passwords.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder(passwords.size() * 64);
+        for (Map.Entry<String, String> entry : passwords.entrySet()) {
+            lines.append(addEntry(entry.getKey(), entry.getValue())).append('\n');
+        }
+        append(lines);
+    }
+
+    synchronized void remove(String studentNumber) throws IOException {
+        JSONObject entry = new JSONObject();
+        entry.put("op", OP_REMOVE);
+        entry.put("student_number", studentNumber);
+        append(new StringBuilder(entry.toString()).append('\n'));
+    }
+
+    private static StringBuilder addEntry(String studentNumber, String password) {
+        JSONObject entry = new JSONObject();
+        entry.put("op", OP_ADD);
+        entry.put("student_number", studentNumber);
+        entry.put("password", password);
+        return new StringBuilder(entry.toString());
+    }
+
+    private void append(CharSequence lines) throws IOException {
+        locked(() -> {
+            openJournal();
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+            while (buffer.hasRemaining()) {
+                journalChannel.write(buffer);
+            }
+            journalChannel.force(false);
+            for (int i = 0; i < lines.length(); i++) {
+                if (lines.charAt(i) == '\n') {
+                    journalEntries++;
+                }
+            }
+            if (journalEntries >= COMPACT_ENTRIES) {
+                compactLocked();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Make sure journalChannel appends to the journal file that is there now. Another instance may have
+     * compacted and deleted the one we had open, and writes to that would be lost.
+     */
+    private void openJournal() throws IOException {
+        boolean exists = Files.exists(journal);
+        Object current = exists ? Files.readAttributes(journal, BasicFileAttributes.class).fileKey() : null;
+        if (journalChannel != null && current != null && current.equals(journalKey)) {
+            return;
+        }
+        // Without file keys (e.g. on Windows) the journal is reopened for every append
+        closeJournal();
+        journalChannel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journalKey = Files.readAttributes(journal, BasicFileAttributes.class).fileKey();
+        if (!exists) {
+            // A fresh journal, ours or left by another instance's compaction
+            journalEntries = 0;
+        }
+    }
+
+    /**
+     * Rewrite the snapshot from the snapshot and journal on disk and empty the journal. Replaying the
+     * old journal over the new snapshot gives the same result, so a crash between the two steps loses nothing.
+     */
+    synchronized void compact() throws IOException {
+        locked(() -> {
+            compactLocked();
+            return null;
+        });
+    }
+
+    private void compactLocked() throws IOException {
+        // Changes other instances journaled since we loaded are on disk only, so merge from there
+        Map<String, String> merged = new LinkedHashMap<>();
+        read(merged::put, merged::remove);
+
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                     Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+            writer.write("{\"accounts\": [");
+            for (Map.Entry<String, String> account : merged.entrySet()) {
+                JSONObject json = new JSONObject();
+                json.put("student_number", account.getKey());
+                json.put("password", account.getValue());
+                writer.write(count++ == 0 ? "\n  " : ",\n  ");
+                writer.write(json.toString());
+            }
+            writer.write("\n]}\n");
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        closeJournal();
+        try {
+            Files.delete(journal);
+        } catch (NoSuchFileException e) {
+            // Nothing was journaled yet
+        }
+        journalEntries = 0;
+        Log.info("accounts", null, "账户文件已压缩，共 {} 个账户", count);
+    }
+
+    synchronized void close() {
+        try {
+            closeJournal();
+        } catch (IOException e) {
+            Log.warn("accounts", null, "关闭账户日志时出错: {}", e.getMessage());
+        }
+    }
+
+    private void closeJournal() throws IOException {
+        if (journalChannel != null) {
+            FileChannel channel = journalChannel;
+            journalChannel = null;
+            journalKey = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.icecream;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time every scheduling decision is based on: when a course's window opens, whether a new day has
+ * begun, when an account wakes next. Normally the system clock; with -Dautosign.date=yyyyMMdd the
+ * clock runs at normal speed but on that date; the semester simulation installs a {@link Virtual}
+ * clock that only moves when told to. Latencies, rate limits and breaker probes measure real time
+ * and keep using System.nanoTime and System.currentTimeMillis, as does anything sent to the server,
+ * such as the sign-in timestamp.
+ */
+final class AppClock {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static volatile Clock clock = fromConfig();
+
+    private AppClock() {
+    }
+
+    private static Clock fromConfig() {
+        Clock system = Clock.systemDefaultZone();
+        String date = Config.string("autosign.date", "");
+        if (date.isEmpty()) {
+            return system;
+        }
+        try {
+            LocalDate target = LocalDate.parse(date, DATE_FORMAT);
+            return Clock.offset(system, Duration.between(LocalDate.now(system).atStartOfDay(), target.atStartOfDay()));
+        } catch (DateTimeParseException e) {
+            System.out.println("配置项 autosign.date 格式错误，请使用YYYYMMDD格式（如：20250304），使用当前日期");
+            return system;
+        }
+    }
+
+    static Clock get() {
+        return clock;
+    }
+
+    /**
+     * Replace the clock, e.g. with a virtual one; must happen before any account is scheduled
+     */
+    static void use(Clock replacement) {
+        clock = replacement;
+    }
+
+    static long millis() {
+        return clock.millis();
+    }
+
+    static ZoneId zone() {
+        return clock.getZone();
+    }
+
+    static LocalDate today() {
+        return LocalDate.now(clock);
+    }
+
+    /**
+     * Today's date as yyyyMMdd
+     */
+    static String todayStr() {
+        return today().format(DATE_FORMAT);
+    }
+
+    /**
+     * Run a task after a delay in clock time: on the executor normally, or when a virtual clock reaches it
+     */
+    static void schedule(ScheduledExecutorService executor, Runnable task, long delayMillis) {
+        Clock current = clock;
+        if (current instanceof Virtual) {
+            ((Virtual) current).schedule(task, current.millis() + delayMillis);
+        } else {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A clock that stands still until advanced. Tasks scheduled through {@link AppClock#schedule} wait
+     * in a queue and run on the advancing thread when the clock passes their time, in time order.
+     * {@link #withZone} gives a view in another zone that shares the time and the queued tasks.
+     */
+    static final class Virtual extends Clock {
+        private final Timeline timeline;
+        private final ZoneId zone;
+
+        Virtual(long startMillis, ZoneId zone) {
+            this(new Timeline(startMillis), zone);
+        }
+
+        private Virtual(Timeline timeline, ZoneId zone) {
+            this.timeline = timeline;
+            this.zone = zone;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Virtual withZone(ZoneId other) {
+            return other.equals(zone) ? this : new Virtual(timeline, other);
+        }
+
+        @Override
+        public long millis() {
+            return timeline.nowMillis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(timeline.nowMillis);
+        }
+
+        void schedule(Runnable task, long atMillis) {
+            synchronized (timeline) {
+                timeline.timers.add(new Timer(Math.max(atMillis, timeline.nowMillis), timeline.sequence++, task));
+            }
+        }
+
+        /**
+         * Time of the earliest queued task, or Long.MAX_VALUE if none
+         */
+        long nextTimerMillis() {
+            synchronized (timeline) {
+                Timer head = timeline.timers.peek();
+                return head == null ? Long.MAX_VALUE : head.atMillis;
+            }
+        }
+
+        int pendingTimers() {
+            synchronized (timeline) {
+                return timeline.timers.size();
+            }
+        }
+
+        /**
+         * Move the clock forward to the given time, running every task due by then at its own time.
+         * The clock never moves backwards.
+         */
+        void advanceTo(long targetMillis) {
+            while (true) {
+                Timer due;
+                synchronized (timeline) {
+                    due = timeline.timers.peek();
+                    if (due == null || due.atMillis > targetMillis) {
+                        timeline.nowMillis = Math.max(timeline.nowMillis, targetMillis);
+                        return;
+                    }
+                    timeline.timers.poll();
+                    timeline.nowMillis = Math.max(timeline.nowMillis, due.atMillis);
+                }
+                due.task.run();
+            }
+        }
+
+        /**
+         * The time and queued tasks shared by a virtual clock and its views in other zones
+         */
+        private static final class Timeline {
+            volatile long nowMillis;
+            long sequence;
+            final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+            Timeline(long startMillis) {
+                this.nowMillis = startMillis;
+            }
+        }
+
+        private static final class Timer implements Comparable<Timer> {
+            final long atMillis;
+            final long sequence;
+            final Runnable task;
+
+            Timer(long atMillis, long sequence, Runnable task) {
+                this.atMillis = atMillis;
+                this.sequence = sequence;
+                this.task = task;
+            }
+
+            @Override
+            public int compareTo(Timer other) {
+                int byTime = Long.compare(atMillis, other.atMillis);
+                return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.icecream;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking client for stu_scan_sign.action, so thousands of sign-ins can be in flight at
+ * class start without a thread each. The number of outstanding requests is capped, and requests over
+ * the cap queue up instead of blocking their caller; the queue is bounded too, and a request that finds
+ * it full fails at once with {@link BacklogFullException} so the caller can retry it later.
+ */
+final class AsyncSignInClient {
+    static final int MAX_IN_FLIGHT = Config.integer("autosign.signin.maxInFlight", 1000);
+    static final int MAX_QUEUED = Config.integer("autosign.signin.maxQueued", 5000);
+    static final int TIMEOUT_MILLIS = Config.integer("autosign.signin.timeoutMillis", 15_000);
+
+    /**
+     * Runs the client's network I/O; kept apart from the callbacks, so a slow callback cannot stall it
+     */
+    private static final ExecutorService IO = Executors.newFixedThreadPool(
+            Config.integer("autosign.signin.ioThreads", 2), TickEngine.namedDaemonThreads("signin-io"));
+    private static final ExecutorService CALLBACKS = Executors.newFixedThreadPool(
+            Config.integer("autosign.signin.callbackThreads", 4), TickEngine.namedDaemonThreads("signin-callback"));
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(TIMEOUT_MILLIS))
+            .executor(IO)
+            .build();
+
+    private static final Semaphore IN_FLIGHT = new Semaphore(MAX_IN_FLIGHT);
+    private static final BlockingQueue<Runnable> WAITING = new LinkedBlockingQueue<>(Math.max(1, MAX_QUEUED));
+
+    /**
+     * The last warm-up: how many connections it left open, the handshake time each took, until when the
+     * client keeps them, and how many of them requests have run on since
+     */
+    private static volatile int warmConnections;
+    private static volatile long warmHandshakeNanos;
+    private static volatile long warmExpiresNanos;
+    private static final AtomicInteger WARM_USED = new AtomicInteger();
+
+    private AsyncSignInClient() {
+    }
+
+    /**
+     * The request was not sent because MAX_QUEUED requests were already waiting for an in-flight slot
+     */
+    static final class BacklogFullException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BacklogFullException() {
+            super("签到请求排队已满（" + MAX_QUEUED + "），稍后重试");
+        }
+    }
+
+    /**
+     * POST to the sign-in URI without blocking; while MAX_IN_FLIGHT requests are outstanding it is
+     * sent as soon as one of them completes. The returned future completes on a callback thread once
+     * the response body has arrived, or at once with {@link BacklogFullException} if too many requests
+     * are waiting already. The outcome is reported to the sign-in breaker; whether the breaker lets the
+     * request through is up to the caller, before it takes a limiter permit.
+     */
+    static CompletableFuture<AttendanceSystem.HttpResult> post(URI uri) {
+        CircuitBreaker breaker = CircuitBreaker.SIGN_IN;
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(TIMEOUT_MILLIS))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+
+        CompletableFuture<AttendanceSystem.HttpResult> result = new CompletableFuture<>();
+        if (!WAITING.offer(() -> send(request, breaker, result))) {
+            result.completeExceptionally(new BacklogFullException());
+            return result;
+        }
+        drainWaiting();
+        return result;
+    }
+
+    /**
+     * Send queued requests while permits are free. Runs after every enqueue and every completion,
+     * so a request queued just as the last permit came back is not left behind.
+     */
+    private static void drainWaiting() {
+        while (!WAITING.isEmpty() && IN_FLIGHT.tryAcquire()) {
+            Runnable next = WAITING.poll();
+            if (next == null) {
+                IN_FLIGHT.release();
+                return;
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * Send one request holding an in-flight permit, which is given back on the I/O thread when it completes;
+     * the caller's continuations then run on a callback thread
+     */
+    private static void send(HttpRequest request, CircuitBreaker breaker, CompletableFuture<AttendanceSystem.HttpResult> result) {
+        countWarmReuse();
+        try {
+            CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .thenApply(response -> new AttendanceSystem.HttpResult(response.statusCode(), response.body()))
+                    .whenComplete((response, error) -> {
+                        IN_FLIGHT.release();
+                        breaker.record(error == null && response.statusCode < 500 && response.statusCode != 429);
+                        drainWaiting();
+                        CALLBACKS.execute(() -> {
+                            if (error != null) {
+                                result.completeExceptionally(error);
+                            } else {
+                                result.complete(response);
+                            }
+                        });
+                    });
+        } catch (RuntimeException e) {
+            IN_FLIGHT.release();
+            result.completeExceptionally(e);
+            drainWaiting();
+        }
+    }
+
+    /**
+     * Estimate how many warmed connections requests have run on. The client does not say which
+     * connection a request gets, but it hands out an idle one before opening a new one, so the most
+     * requests in flight at once since the warm-up, up to as many as were opened, is taken as the
+     * number used. The estimate is high if the host closed some of them in the meantime.
+     */
+    private static void countWarmReuse() {
+        if (System.nanoTime() - warmExpiresNanos >= 0) {
+            return;
+        }
+        int concurrent = Math.min(inFlight(), warmConnections);
+        int used;
+        while ((used = WARM_USED.get()) < concurrent) {
+            if (WARM_USED.compareAndSet(used, concurrent)) {
+                ConnectionWarmer.reused(concurrent - used, (concurrent - used) * warmHandshakeNanos);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Threads that run response callbacks; also suited to continuations that must not block
+     */
+    static Executor callbacks() {
+        return CALLBACKS;
+    }
+
+    /**
+     * Send count HEAD requests at once so the client holds that many open connections to the host of
+     * uri, then one more over a now warm connection. Each cold request's latency minus the warm one's
+     * is taken as the handshake time of its connection. They are real requests to the sign-in host,
+     * so nothing is sent unless its breaker is closed, and each one waits for a limiter permit behind
+     * every sign-in with a deadline and reports its outcome to both.
+     */
+    static ConnectionWarmer.Result warm(URI uri, int count) {
+        CircuitBreaker breaker = CircuitBreaker.SIGN_IN;
+        if (breaker.state() != CircuitBreaker.State.CLOSED) {
+            Log.info("warmup", null, "签到接口熔断中，跳过预热签到连接");
+            return new ConnectionWarmer.Result(0, 0);
+        }
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(TIMEOUT_MILLIS))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        List<CompletableFuture<Long>> cold = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cold.add(timedHead(request, breaker));
+        }
+        List<Long> latencies = new ArrayList<>(count);
+        try {
+            for (CompletableFuture<Long> future : cold) {
+                try {
+                    latencies.add(future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                } catch (ExecutionException | TimeoutException e) {
+                    future.cancel(true);
+                }
+            }
+            if (latencies.isEmpty()) {
+                return new ConnectionWarmer.Result(0, 0);
+            }
+            long warm = timedHead(request, breaker).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            long handshake = 0;
+            for (long latency : latencies) {
+                handshake += Math.max(0, latency - warm);
+            }
+            warmConnections = 0;
+            WARM_USED.set(0);
+            warmHandshakeNanos = handshake / latencies.size();
+            warmExpiresNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(ConnectionWarmer.KEEP_ALIVE_SECONDS);
+            warmConnections = latencies.size();
+            return new ConnectionWarmer.Result(latencies.size(), handshake);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.warn("warmup", null, "预热签到连接失败: {}", e.getMessage());
+        }
+        return new ConnectionWarmer.Result(latencies.size(), 0);
+    }
+
+    /**
+     * One HEAD request through the sign-in limiter, completing with its latency in nanoseconds
+     */
+    private static CompletableFuture<Long> timedHead(HttpRequest request, CircuitBreaker breaker) {
+        UpstreamLimiter limiter = UpstreamLimiter.ICLASS_SIGN;
+        return limiter.acquireAsync(Long.MAX_VALUE).thenCompose(granted -> {
+            long start = System.nanoTime();
+            try {
+                return CLIENT.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .handle((response, error) -> {
+                            long latency = System.nanoTime() - start;
+                            boolean ok = error == null && response.statusCode() < 500 && response.statusCode() != 429;
+                            limiter.release(ok, TimeUnit.NANOSECONDS.toMillis(latency));
+                            breaker.record(ok);
+                            if (error != null) {
+                                throw new CompletionException(error);
+                            }
+                            return latency;
+                        });
+            } catch (RuntimeException e) {
+                limiter.cancel();
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+    }
+
+    static int inFlight() {
+        return MAX_IN_FLIGHT - IN_FLIGHT.availablePermits();
+    }
+
+    static String describe() {
+        return "异步签到: 进行中 " + inFlight() + "，排队 " + WAITING.size() + "，上限 " + MAX_IN_FLIGHT + "，排队上限 " + MAX_QUEUED;
+    }
+}
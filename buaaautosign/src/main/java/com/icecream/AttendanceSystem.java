@@ -1,131 +1,563 @@
 package com.icecream;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.BasicCookieStore;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.cookie.BasicClientCookie;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.net.URI;
-import java.text.SimpleDateFormat;
+import java.net.URISyntaxException;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class AttendanceSystem {
     private static final String ACCOUNTS_FILE = "student_accounts.json";
-    // Can be set for debugging or specific date testing
-    private static final String ARG_DATE = null; // Format YYYYMMDD
+    private static final String ACCOUNTS_JOURNAL_FILE = "student_accounts.journal";
+    // Each shard instance keeps its own cache, since it only fetches schedules for its own accounts
+    private static final String COURSE_CACHE_FILE = ShardCoordinator.COUNT > 1
+            ? "course_cache-" + ShardCoordinator.INSTANCE + ".json" : "course_cache.json";
     
     // Student account class to store user information and state
-    private static class StudentAccount {
-        String studentNumber;
-        String password;
-        String userId = "";
-        String sessionId = "";
-        boolean isLoggedIn = false;
-        long lastLoginTime = 0;
-        final Set<String> signedCourses = new HashSet<>();
-        final Map<String, JSONObject> todayCourses = new HashMap<>();
-        LocalDate lastCoursesLoadDate = null; // Track the date when courses were last loaded
+    // Kept small, since a deployment may hold 100k of these: ids are packed, course flags are bits
+    static class StudentAccount {
+        private static final AtomicReferenceFieldUpdater<StudentAccount, DayCourses> DAY =
+                AtomicReferenceFieldUpdater.newUpdater(StudentAccount.class, DayCourses.class, "day");
+        
+        // Written by tick, retry, prefetch and import threads alike, so every field is volatile
+        volatile String studentNumber;
+        volatile String password;
+        private volatile byte[] userId = CompactIds.EMPTY;
+        private volatile byte[] sessionId = CompactIds.EMPTY;
+        volatile boolean isLoggedIn = false;
+        volatile long lastLoginTime = 0;
+        volatile long lastSessionOkTime = 0; // Last time the server accepted this account's session
+        private volatile DayCourses day = DayCourses.EMPTY; // Today's courses with signed and in-flight flags
+        volatile LocalDate lastCoursesLoadDate = null; // Track the date when courses were last loaded
+        final AtomicBoolean busy = new AtomicBoolean(false); // Set while a tick task is working on this account
+        final CookieStore cookieStore = new BasicCookieStore(); // Cookies of this account only
         
         public StudentAccount(String studentNumber, String password) {
             this.studentNumber = studentNumber;
             this.password = password;
         }
+        
+        String userId() {
+            return CompactIds.unpack(userId);
+        }
+        
+        String sessionId() {
+            return CompactIds.unpack(sessionId);
+        }
+        
+        void setSession(String userId, String sessionId) {
+            this.userId = CompactIds.pack(userId);
+            this.sessionId = CompactIds.pack(sessionId);
+        }
+        
+        /**
+         * A fresh context over this account's cookies for one request or login flow. Not kept between
+         * requests, since the client leaves the last request, response and connection in it.
+         * Carries the account's sign-in deadline so its requests queue ahead of less urgent ones.
+         */
+        HttpClientContext newHttpContext() {
+            HttpClientContext context = HttpClientContext.create();
+            context.setCookieStore(cookieStore);
+            context.setAttribute(SharedHttpClient.DEADLINE, signInDeadline(AppClock.millis()));
+            return context;
+        }
+        
+        /**
+         * End of the earliest unsigned course whose sign-in window is open at the given time
+         * (counting a window that opens exactly then), or Long.MAX_VALUE if there is none
+         */
+        long signInDeadline(long atMillis) {
+            DayCourses current = day;
+            CourseIndex courses = current.courses;
+            long deadline = Long.MAX_VALUE;
+            for (int i = courses.activeFrom(atMillis), to = courses.activeTo(atMillis + 1); i < to; i++) {
+                if (courses.end(i) > atMillis && !current.isSigned(i)) {
+                    deadline = Math.min(deadline, courses.end(i));
+                }
+            }
+            return deadline;
+        }
+        
+        /**
+         * Today's courses, sorted by sign-in window
+         */
+        CourseIndex todayCourses() {
+            return day.courses;
+        }
+        
+        int signedCount() {
+            return day.signedCount();
+        }
+        
+        boolean anySigning() {
+            return day.anySigning();
+        }
+        
+        int signingCount() {
+            return day.signingCount();
+        }
+        
+        boolean isSigned(Course course) {
+            DayCourses current = day;
+            int index = current.courses.indexOf(course.id);
+            return index >= 0 && current.isSigned(index);
+        }
+        
+        /**
+         * Claim a course for one sign-in attempt; false if one is already in flight or the course is gone
+         */
+        boolean claimSigning(Course course) {
+            while (true) {
+                DayCourses current = day;
+                int index = current.courses.indexOf(course.id);
+                if (index < 0 || current.isSigning(index)) {
+                    return false;
+                }
+                if (DAY.compareAndSet(this, current, current.withSigning(index, true))) {
+                    return true;
+                }
+            }
+        }
+        
+        void releaseSigning(Course course) {
+            update(course, false);
+        }
+        
+        /**
+         * Record a successful sign-in and release the claim
+         */
+        void markSigned(Course course) {
+            update(course, true);
+        }
+        
+        private void update(Course course, boolean signed) {
+            while (true) {
+                DayCourses current = day;
+                int index = current.courses.indexOf(course.id);
+                if (index < 0) {
+                    return;
+                }
+                DayCourses next = current.withSigning(index, false);
+                if (DAY.compareAndSet(this, current, signed ? next.withSigned(index) : next)) {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * Replace today's courses; flags carry over on the same day and start empty on a new one
+         */
+        void replaceCourses(CourseIndex courses, boolean newDay) {
+            while (true) {
+                DayCourses current = day;
+                if (DAY.compareAndSet(this, current, current.reload(courses, newDay))) {
+                    return;
+                }
+            }
+        }
     }
     
-    // For tracking session refresh interval
-    private static final long SESSION_REFRESH_INTERVAL = 30 * 60 * 1000; // 30 minutes in milliseconds
+    // A session confirmed by the server within this interval is trusted without logging in again.
+    // Long enough to span the gaps between classes; a session rejected sooner is renewed on the spot.
+    private static final long SESSION_TRUST_INTERVAL =
+            TimeUnit.MINUTES.toMillis(Config.longValue("autosign.session.trustMinutes", 240));
+    
+    // An untrusted session is renewed this long before a known sign-in window opens
+    private static final long SESSION_PRELOGIN_LEAD = 2 * 60 * 1000; // 2 minutes in milliseconds
+    
+    // Sign-in window opens this long before classBeginTime
+    private static final long SIGN_IN_LEAD = 10 * 60 * 1000; // 10 minutes in milliseconds
+    
+    // How often an account is woken while one of its courses is open but not yet signed
+    private static final long SIGN_IN_POLL_INTERVAL = 60 * 1000; // 1 minute in milliseconds
+    
+    // How long to wait before retrying after a failed login
+    private static final long LOGIN_RETRY_INTERVAL = 5 * 60 * 1000; // 5 minutes in milliseconds
     
     // Map to store all student accounts
-    private static final Map<String, StudentAccount> studentAccounts = new ConcurrentHashMap<>();
+    static final Map<String, StudentAccount> studentAccounts = new ConcurrentHashMap<>();
+    
+    // Decides which accounts this instance handles when several instances share the account file
+    private static final ShardCoordinator shardCoordinator = ShardCoordinator.fromConfig();
+    
+    // Snapshot plus journal of account changes, so a change costs one appended line
+    private static final AccountStore accountStore = new AccountStore(ACCOUNTS_FILE, ACCOUNTS_JOURNAL_FILE);
+    
+    // Course schedules shared across accounts and persisted across restarts
+    private static final ScheduleCache scheduleCache = new ScheduleCache(COURSE_CACHE_FILE);
+    
+    // Durable sign-in outcomes, so a restart does not sign the same course again
+    private static final SignInLog signInLog = new SignInLog(SignInLog.FILE, ShardCoordinator.COUNT > 1 ? ShardCoordinator.INSTANCE : null);
+    
+    // Pulls upcoming schedules during the quiet window
+    private static final SchedulePrefetcher schedulePrefetcher = new SchedulePrefetcher(scheduleCache,
+            AttendanceSystem::ownedAccounts, AttendanceSystem::prefetchSchedule, AttendanceSystem::todayDateStr);
+    
+    // Runs the blocking re-login after a sign-in was rejected, keeping it off the async callback threads
+    private static final ExecutorService signInReloginExecutor = Executors.newFixedThreadPool(2, TickEngine.namedDaemonThreads("signin-relogin"));
+    
+    // Opens iClass connections shortly before each wave of sign-in windows
+    private static final ConnectionWarmer connectionWarmer = new ConnectionWarmer(AttendanceSystem::ownedAccounts);
+    
+    // Wakes accounts when their courses enter the sign-in window; null until main starts it
+    private static volatile WakeupScheduler wakeupScheduler;
+    
+    // Run without the stdin console; accounts are then managed through the control API
+    private static final boolean HEADLESS = Config.bool("autosign.headless", false);
+    
+    // The one reader of stdin, shared by every interactive command
+    private static final Scanner console = new Scanner(System.in);
 
     public static void main(String[] args) {
         try {
             System.out.println("多账户自动考勤系统启动...");
-            System.out.println("系统将每分钟检查一次是否有课程需要打卡。");
+            System.out.println("系统将在课程进入打卡时间时自动唤醒对应账户。");
+            
+            String shardProblem = ShardCoordinator.configProblem();
+            if (shardProblem != null) {
+                System.out.println(shardProblem);
+                System.exit(1);
+            }
+            
+            // The sign-in client reads its idle timeout once, when it is built; newer JDKs default to 30 s,
+            // which would drop warmed connections before the wave they were opened for
+            if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+                System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(ConnectionWarmer.KEEP_ALIVE_SECONDS));
+            }
             
             // Load all accounts from the config file
             loadAccounts();
             
+            // Load cached course schedules, dropping past days, and persist changes in the background
+            String todayStr = todayDateStr();
+            scheduleCache.load(todayStr);
+            try {
+                signInLog.open(todayStr);
+            } catch (IOException e) {
+                Log.error("signin_log", null, e, "打开打卡记录失败，重启后可能重复打卡: {}", e.getMessage());
+            }
+            
+            // Claim this instance's share of the accounts before anything is scheduled; the sign-in log
+            // is open by then, so slots taken over adopt what their previous owner already signed
+            if (shardCoordinator.enabled()) {
+                shardCoordinator.setListener(AttendanceSystem::onShardOwnershipChanged);
+                shardCoordinator.start();
+                Log.info("shard", null, shardCoordinator.describe());
+            }
+            ScheduledExecutorService cacheWriter = Executors.newSingleThreadScheduledExecutor(TickEngine.namedDaemonThreads("cache-writer"));
+            cacheWriter.scheduleWithFixedDelay(() -> {
+                dropPastDays();
+                scheduleCache.saveIfDirty();
+                signInLog.sync();
+            }, 30, 30, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                scheduleCache.saveIfDirty();
+                signInLog.close();
+            }));
+            schedulePrefetcher.start();
+            MetricsServer.startIfConfigured(scheduleCache);
+            
             // Check if we have any accounts, if not, prompt to add one
-            if (studentAccounts.isEmpty()) {
+            if (studentAccounts.isEmpty() && !HEADLESS) {
                 addNewAccount();
             }
             
-            // Schedule the attendance check to run every minute
-            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-            scheduler.scheduleAtFixedRate(() -> {
-                try {
-                    System.out.println("\n[" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) + "] 开始检查所有账户...");
-                    
-                    // Process each account
-                    for (Map.Entry<String, StudentAccount> entry : studentAccounts.entrySet()) {
-                        String studentNumber = entry.getKey();
-                        StudentAccount account = entry.getValue();
-                        
-                        System.out.println("\n处理账户: " + maskStudentNumber(studentNumber));
-                        
-                        // Check if session needs refreshing
-                        boolean needsRefresh = !account.isLoggedIn || (System.currentTimeMillis() - account.lastLoginTime > SESSION_REFRESH_INTERVAL);
-                        
-                        if (needsRefresh) {
-                            System.out.println("会话过期或需要刷新，正在重新登录...");
-                            account.isLoggedIn = false;
-                            login(account);
-                        } else {
-                            System.out.println("会话有效，检查课程...");
-                        }
-                        
-                        // If login successful, check courses and sign in
-                        if (account.isLoggedIn) {
-                            checkAndSignIn(account);
-                        }
-                    }
-                } catch (Exception e) {
-                    System.out.println("执行自动考勤过程中发生错误: " + e.getMessage());
-                    e.printStackTrace();
-                }
-            }, 0, 1, TimeUnit.MINUTES);
-            
-            // Start a management thread to handle user commands
-            Thread managementThread = new Thread(() -> manageAccounts());
-            managementThread.setDaemon(true);
-            managementThread.start();
+            // Wake each account only when it has something to do, fanning out due accounts in parallel
+            TickEngine tickEngine = TickEngine.fromConfig();
+            Log.info("system", null, "并行检查模式: {}", tickEngine.describe());
+            newWakeupScheduler(tickEngine).start();
+            for (CircuitBreaker breaker : CircuitBreaker.all()) {
+                breaker.onClose(AttendanceSystem::wakeAfterRecovery);
+            }
+            ControlServer.startIfConfigured();
             
             // Keep the application running
             System.out.println("系统正在运行中");
-            System.out.println("输入 'help' 查看可用命令，或按 Ctrl+C 退出程序");
+            if (HEADLESS) {
+                Log.info("system", null, "无交互模式运行，{}", ControlServer.PORT > 0 ? "通过控制接口管理账户" : "未配置控制接口");
+            } else {
+                // Start a management thread to handle user commands
+                Thread managementThread = new Thread(() -> manageAccounts());
+                managementThread.setDaemon(true);
+                managementThread.start();
+                System.out.println("输入 'help' 查看可用命令，或按 Ctrl+C 退出程序");
+            }
             Thread.currentThread().join();
             
         } catch (Exception e) {
-            System.out.println("程序出现异常: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("system", null, e, "程序出现异常: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Create the scheduler that wakes accounts and queue every owned account for an immediate first
+     * check. Not started: main runs it on the wall clock, the semester simulation drives it by hand.
+     */
+    static WakeupScheduler newWakeupScheduler(TickEngine tickEngine) {
+        wakeupScheduler = new WakeupScheduler(tickEngine, AttendanceSystem::processAccount, AttendanceSystem::nextWakeTime,
+                StudentAccount::signInDeadline);
+        for (StudentAccount account : ownedAccounts()) {
+            wakeupScheduler.scheduleNow(account);
+        }
+        return wakeupScheduler;
+    }
+    
+    /**
+     * Drop cached schedules and sign-in records of days before today
+     */
+    static void dropPastDays() {
+        String dateStr = todayDateStr();
+        scheduleCache.evictBefore(dateStr);
+        signInLog.compactBefore(dateStr);
+    }
+    
+    /**
+     * Refresh the session if needed, then check courses and sign in for one account
+     */
+    private static void processAccount(StudentAccount account) {
+        if (!shardCoordinator.owns(account.studentNumber)) {
+            return;
+        }
+        try {
+            // Sessions are kept until the server rejects them; only renew an untrusted one right before a sign-in window
+            long now = AppClock.millis();
+            if (!account.isLoggedIn) {
+                Log.info("account", account, "账户未登录，正在登录...");
+                login(account);
+            } else if (isSessionStale(account, now) && hasSignInWindowWithin(account, now, SESSION_PRELOGIN_LEAD)) {
+                Log.info("account", account, "即将进入打卡时间，提前刷新会话...");
+                account.isLoggedIn = false;
+                login(account);
+            } else {
+                Log.debug("account", account, "会话有效，检查课程...");
+            }
+            
+            // If login successful, check courses and sign in
+            if (account.isLoggedIn) {
+                checkAndSignIn(account);
+            }
+        } catch (Exception e) {
+            Log.error("account", account, e, "处理账户时发生错误: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Wake the accounts an outage held back, instead of leaving them to their retry interval
+     */
+    private static void wakeAfterRecovery() {
+        long now = AppClock.millis();
+        int woken = 0;
+        for (StudentAccount account : ownedAccounts()) {
+            if (!account.isLoggedIn || shouldRefreshCourses(account) || account.signInDeadline(now) != Long.MAX_VALUE) {
+                wakeupScheduler.scheduleNow(account);
+                woken++;
+            }
+        }
+        if (woken > 0) {
+            Log.info("breaker", null, "接口已恢复，立即处理 {} 个账户", woken);
+        }
+    }
+    
+    /**
+     * Work out when an account next needs attention: the start of a course's sign-in window,
+     * a short poll while a window is open and unsigned, or the next day's schedule refresh
+     */
+    static long nextWakeTime(StudentAccount account, long nowMillis) {
+        if (!studentAccounts.containsKey(account.studentNumber) || !shardCoordinator.owns(account.studentNumber)) {
+            // Removed, or handed to another shard instance
+            return Long.MAX_VALUE;
+        }
+        if (!account.isLoggedIn || shouldRefreshCourses(account)) {
+            // Login or today's schedule failed; try again later
+            return nowMillis + LOGIN_RETRY_INTERVAL;
+        }
+        
+        ZoneId zone = AppClock.zone();
+        long next = Instant.ofEpochMilli(nowMillis).atZone(zone).toLocalDate().plusDays(1)
+                .atStartOfDay(zone).toInstant().toEpochMilli();
+        DayCourses day = account.day;
+        CourseIndex courses = day.courses;
+        
+        // Keep polling while an open window still needs a sign-in
+        int upcoming = courses.activeTo(nowMillis);
+        for (int i = courses.activeFrom(nowMillis); i < upcoming; i++) {
+            if (courses.isActive(i, nowMillis) && !day.isSigned(i)) {
+                next = Math.min(next, nowMillis + SIGN_IN_POLL_INTERVAL);
+                break;
+            }
+        }
+        
+        if (upcoming < courses.size()) {
+            // checkAndSignIn requires the current time to be strictly after the window start
+            long courseStart = courses.windowStart(upcoming);
+            next = Math.min(next, courseStart + 1000);
+            
+            // Renew the session just before the window if it will not be trusted by then
+            long preLogin = courseStart - SESSION_PRELOGIN_LEAD;
+            if (preLogin > nowMillis && isSessionStale(account, preLogin)) {
+                next = Math.min(next, preLogin);
+            }
+        }
+        return next;
+    }
+    
+    /**
+     * The accounts this instance handles; all of them unless sharding is on
+     */
+    private static Collection<StudentAccount> ownedAccounts() {
+        if (!shardCoordinator.enabled()) {
+            return studentAccounts.values();
+        }
+        List<StudentAccount> owned = new ArrayList<>();
+        for (StudentAccount account : studentAccounts.values()) {
+            if (shardCoordinator.owns(account.studentNumber)) {
+                owned.add(account);
+            }
+        }
+        return owned;
+    }
+    
+    /**
+     * Start waking accounts of slots this instance took over and stop waking those it handed off
+     */
+    private static void onShardOwnershipChanged(BitSet gained, BitSet lost) {
+        if (!gained.isEmpty()) {
+            adoptSignIns(gained);
+        }
+        WakeupScheduler scheduler = wakeupScheduler;
+        if (scheduler == null) {
+            return;
+        }
+        for (StudentAccount account : studentAccounts.values()) {
+            int slot = shardCoordinator.slotOf(account.studentNumber);
+            if (gained.get(slot)) {
+                scheduler.scheduleNow(account);
+            } else if (lost.get(slot)) {
+                scheduler.cancel(account);
+            }
+        }
+    }
+    
+    /**
+     * Take over today's sign-ins the previous owners of the gained slots logged, so none is sent twice
+     */
+    private static void adoptSignIns(BitSet gained) {
+        try {
+            int adopted = signInLog.adoptPeers(studentNumber -> gained.get(shardCoordinator.slotOf(studentNumber)));
+            if (adopted > 0) {
+                Log.info("shard", null, "接管分片 {}，沿用其他实例今日的 {} 条打卡记录", gained, adopted);
+            }
+        } catch (IOException e) {
+            Log.error("shard", null, e, "读取其他实例的打卡记录失败，接管的账户可能重复打卡: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Whether the session has gone unconfirmed by the server for longer than the trust interval
+     */
+    private static boolean isSessionStale(StudentAccount account, long atMillis) {
+        return atMillis - account.lastSessionOkTime > SESSION_TRUST_INTERVAL;
+    }
+    
+    /**
+     * Whether an unsigned course's sign-in window is open or opens within the given lead time
+     */
+    private static boolean hasSignInWindowWithin(StudentAccount account, long nowMillis, long leadMillis) {
+        DayCourses day = account.day;
+        CourseIndex courses = day.courses;
+        for (int i = courses.activeFrom(nowMillis), to = courses.activeTo(nowMillis + leadMillis + 1); i < to; i++) {
+            if (courses.end(i) > nowMillis && !day.isSigned(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Whether a response means the server no longer accepts the account's session:
+     * an explicit 401/403, a redirect back to SSO, or an HTML login page where JSON was expected
+     */
+    static boolean isAuthFailure(int statusCode, String body) {
+        if (statusCode == 401 || statusCode == 403 || (statusCode >= 300 && statusCode < 400)) {
+            return true;
+        }
+        if (statusCode != 200) {
+            return false;
+        }
+        String trimmed = body == null ? "" : body.trim();
+        if (!trimmed.startsWith("{")) {
+            return true;
+        }
+        try {
+            JSONObject json = new JSONObject(trimmed);
+            String message = json.optString("ERRMSG", "") + json.optString("message", "");
+            return message.contains("登录") || message.contains("过期") || message.toLowerCase().contains("session");
+        } catch (Exception e) {
+            return true;
+        }
+    }
+    
+    /**
+     * Log in again after the server rejected the session
+     */
+    private static void relogin(StudentAccount account) {
+        Log.info("login", account, "会话已被服务器拒绝，重新登录");
+        account.isLoggedIn = false;
+        login(account);
+    }
+    
+    /**
+     * Status code and body of a completed request
+     */
+    static class HttpResult {
+        final int statusCode;
+        final String body;
+        
+        HttpResult(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
+    
+    /**
+     * Execute a request in the account's context and read the whole body
+     */
+    private static HttpResult execute(HttpUriRequest request, StudentAccount account) throws IOException {
+        try (CloseableHttpResponse response = SharedHttpClient.execute(request, account.newHttpContext())) {
+            HttpEntity entity = response.getEntity();
+            return new HttpResult(response.getStatusLine().getStatusCode(), entity == null ? "" : EntityUtils.toString(entity));
         }
     }
     
@@ -133,10 +565,9 @@ public class AttendanceSystem {
      * User interface for account management
      */
     private static void manageAccounts() {
-        Scanner scanner = new Scanner(System.in);
         while (true) {
             try {
-                String command = scanner.nextLine().trim();
+                String command = console.nextLine().trim();
                 
                 switch (command.toLowerCase()) {
                     case "help":
@@ -144,7 +575,10 @@ public class AttendanceSystem {
                         System.out.println("list - 列出所有账户");
                         System.out.println("add - 添加新账户");
                         System.out.println("remove - 删除账户");
+                        System.out.println("import - 从 CSV 或 JSON 文件批量导入账户");
                         System.out.println("check - 手动检查所有课程");
+                        System.out.println("stats - 显示连接池、课程缓存和限流状态");
+                        System.out.println("prefetch - 立即预取未来几天的课表");
                         System.out.println("exit - 退出程序");
                         System.out.println("help - 显示此帮助信息");
                         break;
@@ -161,12 +595,27 @@ public class AttendanceSystem {
                         removeAccount();
                         break;
                         
+                    case "import":
+                        importAccounts();
+                        break;
+                        
                     case "check":
                         manualCheck();
                         break;
                         
+                    case "stats":
+                        showStats();
+                        break;
+                        
+                    case "prefetch":
+                        System.out.println("开始预取未来 " + SchedulePrefetcher.DAYS + " 天的课表...");
+                        schedulePrefetcher.runPassAsync();
+                        break;
+                        
                     case "exit":
                         System.out.println("正在退出系统...");
+                        SharedHttpClient.close();
+                        signInLog.close();
                         System.exit(0);
                         break;
                         
@@ -196,25 +645,56 @@ public class AttendanceSystem {
         int index = 1;
         for (String studentNumber : studentAccounts.keySet()) {
             StudentAccount account = studentAccounts.get(studentNumber);
+            Long wakeAt = wakeupScheduler == null ? null : wakeupScheduler.scheduledFor(account);
+            String nextWake = wakeAt == null ? "" : "，下次唤醒: " + LocalDateTime.ofInstant(Instant.ofEpochMilli(wakeAt), AppClock.zone())
+                    .format(DateTimeFormatter.ofPattern("MM-dd HH:mm:ss"));
             System.out.println(index + ". " + maskStudentNumber(studentNumber) + 
-                    " (状态: " + (account.isLoggedIn ? "已登录" : "未登录") + ")");
+                    " (状态: " + (!shardCoordinator.owns(studentNumber) ? "由其他实例负责"
+                            : account.isLoggedIn ? "已登录" : "未登录") + nextWake + ")");
             index++;
         }
+        System.out.println("接口状态:");
+        for (CircuitBreaker breaker : CircuitBreaker.all()) {
+            System.out.println("  " + breaker.describe());
+        }
+    }
+    
+    /**
+     * Print runtime statistics of the shared HTTP connection pool
+     */
+    private static void showStats() {
+        System.out.println("\n" + SharedHttpClient.describeStats());
+        System.out.print(SharedHttpClient.describeRouteStats());
+        System.out.println(scheduleCache.describe());
+        System.out.println(AsyncSignInClient.describe());
+        System.out.println(connectionWarmer.describe());
+        System.out.println(signInLog.describe());
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println(String.format("内存: 堆已用 %.1f MB，上限 %.1f MB，账户 %d 个",
+                (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0, runtime.maxMemory() / 1048576.0, studentAccounts.size()));
+        if (shardCoordinator.enabled()) {
+            System.out.println(shardCoordinator.describe());
+        }
+        System.out.print(Metrics.describe());
+        for (UpstreamLimiter limiter : UpstreamLimiter.all()) {
+            System.out.println(limiter.describe());
+        }
+        for (CircuitBreaker breaker : CircuitBreaker.all()) {
+            System.out.println(breaker.describe());
+        }
     }
     
     /**
      * Add a new student account
      */
     private static void addNewAccount() {
-        Scanner scanner = new Scanner(System.in);
-        
         System.out.println("添加新账户");
         System.out.println("-----------");
         
         String studentNumber;
         while (true) {
             System.out.println("请输入学号:");
-            studentNumber = scanner.nextLine().trim();
+            studentNumber = console.nextLine().trim();
             
             if (studentNumber.isEmpty()) {
                 System.out.println("学号不能为空，请重新输入");
@@ -230,24 +710,42 @@ public class AttendanceSystem {
         }
         
         System.out.println("请输入密码:");
-        String password = scanner.nextLine().trim();
+        String password = console.nextLine().trim();
         
         if (password.isEmpty()) {
             System.out.println("添加账户失败：密码不能为空");
             return;
         }
         
-        // Create and add the new account
-        StudentAccount newAccount = new StudentAccount(studentNumber, password);
-        studentAccounts.put(studentNumber, newAccount);
-        
-        // Save all accounts
-        saveAccounts();
+        try {
+            addAccount(studentNumber, password);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("添加账户失败：" + e.getMessage());
+            return;
+        }
         
+        // Logging in happens on the next wakeup, so the console is free right away
         System.out.println("账户添加成功：" + maskStudentNumber(studentNumber));
-        
-        // Attempt to login with the new account
-        login(newAccount);
+        if (!shardCoordinator.owns(studentNumber)) {
+            System.out.println("该账户属于其他实例负责的分片，将由对应实例在重启后处理");
+        }
+    }
+    
+    /**
+     * Bulk-import accounts from a CSV or JSON file, checking each login before saving the batch
+     */
+    private static void importAccounts() {
+        System.out.println("请输入文件路径（CSV 每行 学号,密码；或 JSON 格式同账户文件）:");
+        String path = console.nextLine().trim();
+        try {
+            String content = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+            Map<String, String> passwords = AccountImporter.parse(content, path.toLowerCase().endsWith(".json"));
+            System.out.println("正在验证 " + passwords.size() + " 个账户...");
+            AccountImporter.Result result = AccountImporter.importBatch(passwords, true);
+            System.out.println(result);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("导入失败：" + e.getMessage());
+        }
     }
     
     /**
@@ -259,13 +757,11 @@ public class AttendanceSystem {
             return;
         }
         
-        Scanner scanner = new Scanner(System.in);
-        
         // List all accounts first
         listAccounts();
         
         System.out.println("\n请输入要删除的账户学号:");
-        String studentNumber = scanner.nextLine().trim();
+        String studentNumber = console.nextLine().trim();
         
         if (!studentAccounts.containsKey(studentNumber)) {
             System.out.println("找不到该学号的账户");
@@ -273,12 +769,15 @@ public class AttendanceSystem {
         }
         
         System.out.println("确认删除账户 " + maskStudentNumber(studentNumber) + "? (y/n)");
-        String confirm = scanner.nextLine().trim().toLowerCase();
+        String confirm = console.nextLine().trim().toLowerCase();
         
         if (confirm.equals("y") || confirm.equals("yes")) {
-            studentAccounts.remove(studentNumber);
-            saveAccounts();
-            System.out.println("账户已删除");
+            try {
+                deleteAccount(studentNumber);
+                System.out.println("账户已删除");
+            } catch (IOException e) {
+                System.out.println("删除账户失败：" + e.getMessage());
+            }
         } else {
             System.out.println("取消删除操作");
         }
@@ -294,33 +793,59 @@ public class AttendanceSystem {
         }
         
         System.out.println("手动检查所有账户的课程...");
-        
+        int checked = checkAllAccounts();
+        System.out.println("\n手动检查完成，共检查 " + checked + " 个账户");
+    }
+    
+    /**
+     * Refresh today's schedule and check sign-ins for every account this instance handles,
+     * skipping accounts a scheduled task is working on; returns how many were checked
+     */
+    static int checkAllAccounts() {
+        int checked = 0;
         for (Map.Entry<String, StudentAccount> entry : studentAccounts.entrySet()) {
             String studentNumber = entry.getKey();
             StudentAccount account = entry.getValue();
             
-            System.out.println("\n检查账户: " + maskStudentNumber(studentNumber));
+            if (!shardCoordinator.owns(studentNumber)) {
+                continue;
+            }
             
-            if (!account.isLoggedIn) {
-                System.out.println("账户未登录，尝试登录...");
-                login(account);
+            // Don't run alongside a scheduled task that is already working on this account
+            if (!account.busy.compareAndSet(false, true)) {
+                Log.info("account", account, "该账户正在被自动任务处理，跳过");
+                continue;
             }
             
-            if (account.isLoggedIn) {
-                // Force refresh courses
-                account.todayCourses.clear();
-                loadTodayCourses(account);
-                checkAndSignIn(account);
+            checked++;
+            try {
+                if (!account.isLoggedIn) {
+                    Log.info("account", account, "账户未登录，尝试登录...");
+                    login(account);
+                }
+                
+                if (account.isLoggedIn) {
+                    // Force refresh courses
+                    scheduleCache.invalidate(account.userId(), todayDateStr());
+                    loadTodayCourses(account);
+                    checkAndSignIn(account);
+                }
+            } finally {
+                account.busy.set(false);
+            }
+            
+            // The schedule may have changed, so plan the next wakeup again
+            if (wakeupScheduler != null) {
+                wakeupScheduler.reschedule(account);
             }
         }
-        
-        System.out.println("\n手动检查完成");
+        return checked;
     }
     
     /**
      * Mask student number for privacy
      */
-    private static String maskStudentNumber(String studentNumber) {
+    static String maskStudentNumber(String studentNumber) {
         if (studentNumber.length() <= 4) {
             return studentNumber;
         }
@@ -330,253 +855,382 @@ public class AttendanceSystem {
     /**
      * Handle the login process for an account
      */
-    private static void login(StudentAccount account) {
+    static void login(StudentAccount account) {
         try {
-            System.out.println("正在登录系统... 用户: " + maskStudentNumber(account.studentNumber));
-
-            // Initialize HTTP client and cookie store
-            CookieStore cookieStore = new BasicCookieStore();
-            CloseableHttpClient httpClient = HttpClients.custom()
-                    .setDefaultCookieStore(cookieStore)
-                    .build();
-            HttpClientContext context = HttpClientContext.create();
-            context.setCookieStore(cookieStore);
-
-            // First request to get cookies and execution parameter
-            URI uriLogin = new URIBuilder("https://sso.buaa.edu.cn/login")
-                    .addParameter("service", "https://iclass.buaa.edu.cn:8346/")
-                    .build();
-            HttpGet loginGet = new HttpGet(uriLogin);
+            // Don't start a login that a known outage is going to break halfway
+            CircuitBreaker open = CircuitBreaker.firstOpen(CircuitBreaker.SSO_LOGIN, CircuitBreaker.LOGIN_BUAA);
+            if (open != null) {
+                Log.debug("login", account, "{} 暂时不可用，跳过登录", open.name());
+                account.isLoggedIn = false;
+                return;
+            }
+            Log.debug("login", account, "正在登录系统...");
             
-            String responseBody;
-            String cookieIp = "";
-            String executionValue = "";
+            String phone = ssoLoginName(account);
+            if (phone == null) {
+                return;
+            }
+            HttpClientContext context = account.newHttpContext();
             
-            try (CloseableHttpResponse response = httpClient.execute(loginGet, context)) {
-                HttpEntity entity = response.getEntity();
-                responseBody = EntityUtils.toString(entity);
-                
-                // Extract cookie IP
-                Pattern patternIp = Pattern.compile("http://\\d+\\.\\d+\\.\\d+\\.\\d+:\\d+");
-                Matcher matcherIp = patternIp.matcher(cookieStore.getCookies().toString());
-                if (matcherIp.find()) {
-                    cookieIp = matcherIp.group();
-                } else {
-                    System.out.println("Extract cookie IP ERROR");
-                    return;
-                }
-                
-                // Extract execution value
-                Pattern patternEx = Pattern.compile("<input name=\"execution\" value=\"([^\"]+)\"/>");
-                Matcher matcherEx = patternEx.matcher(responseBody);
-                if (matcherEx.find()) {
-                    executionValue = matcherEx.group(1);
-                } else {
-                    System.out.println("Extract execution value ERROR");
+            // Get user ID and session ID for class schedule
+            URI userLoginUri = new URIBuilder(Endpoints.LOGIN_BUAA)
+                    .addParameter("password", "")
+                    .addParameter("phone", phone)
+                    .addParameter("userLevel", "1")
+                    .addParameter("verificationType", "2")
+                    .addParameter("verificationUrl", "")
+                    .build();
+                    
+            HttpGet userLoginGet = new HttpGet(userLoginUri);
+            
+            long phaseStart = System.nanoTime();
+            boolean phaseOk = false;
+            try (CloseableHttpResponse response = SharedHttpClient.execute(userLoginGet, context)) {
+                HttpEntity entity = response.getEntity();
+                String userDataStr = EntityUtils.toString(entity);
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode != 200) {
+                    Log.warn("login", account, "login_buaa 返回状态码 {}，稍后重试", statusCode);
+                    account.isLoggedIn = false;
                     return;
                 }
+                JSONObject userData = new JSONObject(userDataStr);
+                JSONObject result = userData.getJSONObject("result");
+                account.setSession(result.getString("id"), result.getString("sessionId"));
+                account.isLoggedIn = true;
+                account.lastLoginTime = AppClock.millis();
+                account.lastSessionOkTime = account.lastLoginTime;
+                phaseOk = true;
+                Log.info("login", account, "登录成功，准备检查今日课程");
+            } finally {
+                Metrics.record(Metrics.Phase.LOGIN_BUAA, phaseStart, phaseOk);
             }
             
-            // Add the cookie
-            BasicClientCookie cookie = new BasicClientCookie("_7da9a", cookieIp);
-            cookie.setDomain("sso.buaa.edu.cn");
-            cookie.setPath("/");
-            cookieStore.addCookie(cookie);
-            
-            // Post login data
-            HttpPost loginPost = new HttpPost("https://sso.buaa.edu.cn/login");
-            List<NameValuePair> params = new ArrayList<>();
-            params.add(new BasicNameValuePair("username", account.studentNumber));
-            params.add(new BasicNameValuePair("password", account.password));
-            params.add(new BasicNameValuePair("submit", "登录"));
-            params.add(new BasicNameValuePair("type", "username_password"));
-            params.add(new BasicNameValuePair("execution", executionValue));
-            params.add(new BasicNameValuePair("_eventId", "submit"));
-            loginPost.setEntity(new UrlEncodedFormEntity(params));
-            
-            String phone = "";
-            
-            // Don't use automatic redirects for this request so we can properly track the redirect chain
-            CloseableHttpClient noRedirectClient = HttpClients.custom()
-                    .setDefaultCookieStore(cookieStore)
-                    .disableRedirectHandling()
-                    .build();
+            // Load today's courses once logged in; a rejection right after login is not retried
+            loadTodayCourses(account, false);
             
-            try {
-                HttpResponse response = noRedirectClient.execute(loginPost, context);
-                int statusCode = response.getStatusLine().getStatusCode();
+        } catch (IOException e) {
+            // Network trouble or an outage; the breaker and the next retry deal with it
+            Log.warn("login", account, "登录失败: {}", e.getMessage());
+            account.isLoggedIn = false;
+        } catch (Exception e) {
+            Log.error("login", account, e, "登录过程中发生错误: {}", e.getMessage());
+            account.isLoggedIn = false;
+        }
+    }
+    
+    /**
+     * Log in to SSO for iClass and return the loginName from the final redirect, or null on failure.
+     * The account's cookie jar keeps SSO's ticket-granting cookie between logins; while it is still
+     * valid the login page redirects straight back to iClass with a new service ticket, so the
+     * password is only posted again when that shortcut fails.
+     */
+    private static String ssoLoginName(StudentAccount account) throws Exception {
+        CookieStore cookieStore = account.cookieStore;
+        HttpClientContext context = account.newHttpContext();
+        boolean mayReuse = !cookieStore.getCookies().isEmpty();
+        
+        // First request to get cookies and execution parameter, or a ticket if SSO still knows us
+        URI uriLogin = new URIBuilder(Endpoints.SSO_LOGIN)
+                .addParameter("service", Endpoints.ICLASS_SERVICE)
+                .build();
+        HttpGet loginGet = new HttpGet(uriLogin);
+        if (mayReuse) {
+            loginGet.setConfig(SharedHttpClient.NO_REDIRECTS);
+        }
+        
+        String ticketLocation = null;
+        String cookieIp = null;
+        String executionValue;
+        
+        long phaseStart = System.nanoTime();
+        boolean phaseOk = false;
+        try (CloseableHttpResponse response = SharedHttpClient.execute(loginGet, context)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            Header redirect = response.getFirstHeader("Location");
+            if (mayReuse && statusCode >= 300 && statusCode < 400 && redirect != null) {
+                ticketLocation = redirect.getValue();
+                executionValue = null;
+                EntityUtils.consume(response.getEntity());
+            } else if (mayReuse) {
+                // SSO no longer knows us and served the login page; its cookies belong to the old session
+                // (a stale server address among them), so start over from an empty jar
+                executionValue = null;
+                EntityUtils.consume(response.getEntity());
+            } else {
+                // Extract execution value, stop scanning the page as soon as it is found
+                executionValue = LoginPageParser.readExecution(response.getEntity());
+                if (executionValue == null) {
+                    Log.warn("login", account, "登录页中未找到 execution 参数");
+                    return null;
+                }
                 
-                // Follow redirects manually to track the entire chain
-                String location = "";
+                // Extract cookie IP
+                cookieIp = LoginPageParser.findCookieIp(cookieStore.getCookies());
+                if (cookieIp == null) {
+                    Log.warn("login", account, "未能从 Cookie 中取得服务器地址");
+                    return null;
+                }
+            }
+            phaseOk = true;
+        } finally {
+            Metrics.record(Metrics.Phase.SSO_PAGE, phaseStart, phaseOk);
+        }
+        
+        if (mayReuse && ticketLocation == null) {
+            Log.debug("login", account, "统一认证会话已过期，清空 Cookie 后重新使用密码登录");
+            cookieStore.clear();
+            return ssoLoginName(account);
+        }
+        
+        if (ticketLocation != null) {
+            phaseStart = System.nanoTime();
+            String phone = followToLoginName(ticketLocation, context);
+            Metrics.record(Metrics.Phase.SSO_TICKET, phaseStart, phone != null);
+            if (phone != null) {
+                Log.debug("login", account, "统一认证会话仍有效，跳过密码登录");
+                return phone;
+            }
+            // The old session was refused somewhere along the chain; start over with the password
+            Log.debug("login", account, "统一认证会话已失效，重新使用密码登录");
+            cookieStore.clear();
+            return ssoLoginName(account);
+        }
+        
+        // Add the cookie
+        BasicClientCookie cookie = new BasicClientCookie(LoginPageParser.IP_COOKIE_NAME, cookieIp);
+        cookie.setDomain(Endpoints.ssoHost());
+        cookie.setPath("/");
+        cookieStore.addCookie(cookie);
+        
+        // Post login data
+        HttpPost loginPost = new HttpPost(Endpoints.SSO_LOGIN);
+        List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("username", account.studentNumber));
+        params.add(new BasicNameValuePair("password", account.password));
+        params.add(new BasicNameValuePair("submit", "登录"));
+        params.add(new BasicNameValuePair("type", "username_password"));
+        params.add(new BasicNameValuePair("execution", executionValue));
+        params.add(new BasicNameValuePair("_eventId", "submit"));
+        loginPost.setEntity(new UrlEncodedFormEntity(params));
+        
+        // Don't use automatic redirects for this request so we can properly track the redirect chain
+        loginPost.setConfig(SharedHttpClient.NO_REDIRECTS);
+        
+        try {
+            String location;
+            phaseStart = System.nanoTime();
+            phaseOk = false;
+            try (CloseableHttpResponse response = SharedHttpClient.execute(loginPost, context)) {
+                int statusCode = response.getStatusLine().getStatusCode();
                 if (statusCode >= 300 && statusCode < 400) {
                     location = response.getFirstHeader("Location").getValue();
-                    
-                    // Follow redirects until we find the URL with loginName
-                    int maxRedirects = 10;
-                    while (maxRedirects > 0 && !location.contains("loginName=")) {
-                        HttpGet redirectGet = new HttpGet(location);
-                        response = noRedirectClient.execute(redirectGet, context);
-                        statusCode = response.getStatusLine().getStatusCode();
-                        
-                        if (statusCode >= 300 && statusCode < 400 && response.getFirstHeader("Location") != null) {
-                            location = response.getFirstHeader("Location").getValue();
-                        } else {
-                            break;
-                        }
-                        maxRedirects--;
-                    }
-                    
-                    // Now try to extract the phone parameter
-                    Pattern patternPhone = Pattern.compile("loginName=([A-F0-9]+)");
-                    Matcher matcherPhone = patternPhone.matcher(location);
-                    if (matcherPhone.find()) {
-                        phone = matcherPhone.group(1);
-                        System.out.println("登录成功");
-                    } else {
-                        System.out.println("Error: Could not find loginName in redirect URL");
-                        return;
-                    }
+                    EntityUtils.consume(response.getEntity());
                 } else {
                     // If no redirect, something went wrong
                     HttpEntity entity = response.getEntity();
                     String newResponseBody = EntityUtils.toString(entity);
-                    System.out.println("Login failed. Status code: " + statusCode);
-                    
                     // Check if the response contains error messages
                     if (newResponseBody.contains("用户名或密码错误")) {
-                        System.out.println("用户名或密码错误，请检查后重试");
+                        Log.warn("login", account, "用户名或密码错误，请检查后重试");
                     } else {
-                        System.out.println("登录失败，请检查网络连接或稍后再试");
+                        Log.warn("login", account, "登录失败，状态码 {}，请检查网络连接或稍后再试", statusCode);
                     }
-                    return;
+                    return null;
                 }
-            } catch (Exception e) {
-                System.out.println("Exception during login process: " + e.getMessage());
-                e.printStackTrace();
-                return;
+                phaseOk = true;
+            } finally {
+                Metrics.record(Metrics.Phase.SSO_CREDENTIALS, phaseStart, phaseOk);
             }
             
-            // Get user ID and session ID for class schedule
-            URI userLoginUri = new URIBuilder("https://iclass.buaa.edu.cn:8346/app/user/login_buaa.action")
-                    .addParameter("password", "")
-                    .addParameter("phone", phone)
-                    .addParameter("userLevel", "1")
-                    .addParameter("verificationType", "2")
-                    .addParameter("verificationUrl", "")
-                    .build();
-                    
-            HttpGet userLoginGet = new HttpGet(userLoginUri);
-            
-            try (CloseableHttpResponse response = httpClient.execute(userLoginGet)) {
-                HttpEntity entity = response.getEntity();
-                String userDataStr = EntityUtils.toString(entity);
-                JSONObject userData = new JSONObject(userDataStr);
-                account.userId = userData.getJSONObject("result").getString("id");
-                account.sessionId = userData.getJSONObject("result").getString("sessionId");
-                account.isLoggedIn = true;
-                account.lastLoginTime = System.currentTimeMillis();
-                System.out.println("获取用户信息成功，准备检查今日课程");
-                
-                // Load today's courses once logged in
-                loadTodayCourses(account);
+            phaseStart = System.nanoTime();
+            String phone = followToLoginName(location, context);
+            Metrics.record(Metrics.Phase.SSO_REDIRECTS, phaseStart, phone != null);
+            if (phone == null) {
+                Log.warn("login", account, "跳转地址中未找到 loginName");
             }
-            
-            httpClient.close();
-            
+            return phone;
+        } catch (IOException e) {
+            Log.warn("login", account, "统一认证登录失败: {}", e.getMessage());
+            return null;
         } catch (Exception e) {
-            System.out.println("登录过程中发生错误: " + e.getMessage());
-            e.printStackTrace();
-            account.isLoggedIn = false;
+            Log.error("login", account, e, "统一认证登录时发生错误: {}", e.getMessage());
+            return null;
         }
     }
     
     /**
-     * Load all courses for today for the given account
+     * Follow redirects manually until we find the URL with loginName, and return that parameter
+     */
+    private static String followToLoginName(String location, HttpClientContext context) throws IOException {
+        int maxRedirects = 10;
+        while (maxRedirects > 0 && !location.contains("loginName=")) {
+            HttpGet redirectGet = new HttpGet(location);
+            redirectGet.setConfig(SharedHttpClient.NO_REDIRECTS);
+            try (CloseableHttpResponse response = SharedHttpClient.execute(redirectGet, context)) {
+                int statusCode = response.getStatusLine().getStatusCode();
+                EntityUtils.consume(response.getEntity());
+                
+                if (statusCode >= 300 && statusCode < 400 && response.getFirstHeader("Location") != null) {
+                    location = response.getFirstHeader("Location").getValue();
+                } else {
+                    break;
+                }
+            }
+            maxRedirects--;
+        }
+        return LoginPageParser.extractLoginName(location);
+    }
+    
+    /**
+     * Load all courses for today for the given account, logging in again once if the session was rejected
      */
     private static void loadTodayCourses(StudentAccount account) {
+        loadTodayCourses(account, true);
+    }
+    
+    /**
+     * Load all courses for today for the given account
+     */
+    private static void loadTodayCourses(StudentAccount account, boolean retryOnAuthFailure) {
         try {
-            CloseableHttpClient httpClient = HttpClients.custom().build();
-            
-            // Date handling
-            Date today;
-            if (ARG_DATE != null) {
-                try {
-                    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-                    today = dateFormat.parse(ARG_DATE);
-                } catch (Exception e) {
-                    System.out.println("日期格式错误，请使用YYYYMMDD格式（如：20250304）");
+            String dateStr = todayDateStr();
+            
+            // Serve from the shared cache when possible
+            List<Course> courses = scheduleCache.get(account.userId(), dateStr);
+            if (courses == null) {
+                if (!CircuitBreaker.SCHEDULE.allow()) {
+                    Log.debug("schedule", account, "课表接口暂时不可用，稍后再获取");
                     return;
                 }
-            } else {
-                today = new Date(); // Today's date
+                courses = fetchSchedule(account, dateStr);
+                if (courses == null) {
+                    // The schedule only fails for a valid id when the session is gone, so log in again once
+                    if (retryOnAuthFailure) {
+                        relogin(account);
+                    } else {
+                        Log.warn("schedule", account, "获取课程列表失败");
+                    }
+                    return;
+                }
+                courses = scheduleCache.put(account.userId(), dateStr, courses);
             }
             
-            // Calculate date for current day
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(today);
-            
-            SimpleDateFormat dateStrFormat = new SimpleDateFormat("yyyyMMdd");
-            String dateStr = dateStrFormat.format(calendar.getTime());
-            
             // Update the lastCoursesLoadDate to track when we last loaded courses
-            account.lastCoursesLoadDate = LocalDate.now();
+            boolean newDay = shouldRefreshCourses(account);
+            account.lastCoursesLoadDate = AppClock.today();
             
-            // Query course schedule
-            URI courseUri = new URIBuilder("https://iclass.buaa.edu.cn:8346/app/course/get_stu_course_sched.action")
-                    .addParameter("dateStr", dateStr)
-                    .addParameter("id", account.userId)
-                    .build();
-                    
-            HttpGet courseGet = new HttpGet(courseUri);
-            courseGet.setHeader("sessionId", account.sessionId);
+            // Classmates share one index; signed flags reset only on a new day's courses, not on every reload
+            CourseIndex index = scheduleCache.index(courses, SIGN_IN_LEAD);
+            account.replaceCourses(index, newDay);
+            if (newDay) {
+                restoreSigned(account, index);
+            }
+            connectionWarmer.plan(index);
             
-            try (CloseableHttpResponse response = httpClient.execute(courseGet)) {
-                HttpEntity entity = response.getEntity();
-                String jsonResponse = EntityUtils.toString(entity);
-                JSONObject jsonData = new JSONObject(jsonResponse);
-                
-                if ("0".equals(jsonData.getString("STATUS"))) {
-                    JSONArray courses = jsonData.getJSONArray("result");
-                    account.todayCourses.clear(); // Clear previous courses
-                    
-                    // Reset signed courses when loading a new day's courses
-                    account.signedCourses.clear();
-                    
-                    // Cache today's courses
-                    System.out.println("\n账户 " + maskStudentNumber(account.studentNumber) + " 今日课程列表：");
-                    for (int idx = 0; idx < courses.length(); idx++) {
-                        JSONObject course = courses.getJSONObject(idx);
-                        String courseId = course.getString("id");
-                        String classBeginTime = course.getString("classBeginTime");
-                        String classEndTime = course.getString("classEndTime");
-                        String classTime = classBeginTime.substring(11, 16) + "~" + classEndTime.substring(11, 16);
-                        
-                        account.todayCourses.put(courseId, course);
-                        System.out.println((idx + 1) + ". " + course.getString("courseName") + 
-                                " (上课时间：" + classBeginTime.substring(0, 10) + " " + classTime + ")");
-                    }
-                    
-                    if (courses.length() == 0) {
-                        System.out.println("今天没有课程");
-                    }
-                } else {
-                    System.out.println("获取课程列表失败");
+            Log.info("schedule", account, "今日共 {} 门课程", courses.size());
+            if (Log.enabled(Log.Level.DEBUG)) {
+                for (Course course : courses) {
+                    Log.event(Log.Level.DEBUG, "schedule", account, course, null, -1,
+                            "上课时间：{} ~ {}", course.classBeginTime, course.classEndTime);
                 }
             }
             
-            httpClient.close();
-            
+        } catch (IOException e) {
+            Log.warn("schedule", account, "获取课程列表失败: {}", e.getMessage());
         } catch (Exception e) {
-            System.out.println("加载今日课程时发生错误: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("schedule", account, e, "加载今日课程时发生错误: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Mark the courses the sign-in log already has as signed, e.g. from before a restart
+     */
+    private static void restoreSigned(StudentAccount account, CourseIndex courses) {
+        int restored = 0;
+        for (int i = 0; i < courses.size(); i++) {
+            Course course = courses.get(i);
+            if (signInLog.isSigned(account.studentNumber, course)) {
+                account.markSigned(course);
+                restored++;
+            }
+        }
+        if (restored > 0) {
+            Log.info("schedule", account, "打卡记录显示今日已有 {} 门课程打卡成功，不再重复打卡", restored);
+        }
+    }
+    
+    /**
+     * Today's date as yyyyMMdd on the application clock
+     */
+    private static String todayDateStr() {
+        return AppClock.todayStr();
+    }
+    
+    /**
+     * Query one day's course schedule from iClass; null when the server rejects the request
+     */
+    private static List<Course> fetchSchedule(StudentAccount account, String dateStr) throws IOException, URISyntaxException {
+        // Query course schedule
+        URI courseUri = new URIBuilder(Endpoints.COURSE_SCHEDULE)
+                .addParameter("dateStr", dateStr)
+                .addParameter("id", account.userId())
+                .build();
+                
+        HttpGet courseGet = new HttpGet(courseUri);
+        courseGet.setHeader("sessionId", account.sessionId());
+        
+        long phaseStart = System.nanoTime();
+        JSONObject jsonData = null;
+        try {
+            HttpResult result = execute(courseGet, account);
+            if (result.statusCode >= 500 || result.statusCode == 429) {
+                // The server is struggling, not the session; logging in again would not help
+                throw new IOException("课表接口返回状态码 " + result.statusCode);
+            }
+            jsonData = isAuthFailure(result.statusCode, result.body) ? null : new JSONObject(result.body);
+        } finally {
+            Metrics.record(Metrics.Phase.SCHEDULE_FETCH, phaseStart, jsonData != null && "0".equals(jsonData.optString("STATUS")));
+        }
+        if (jsonData == null || !"0".equals(jsonData.getString("STATUS"))) {
+            return null;
         }
+        account.lastSessionOkTime = AppClock.millis();
+        
+        return Course.listFromJson(jsonData.getJSONArray("result"));
+    }
+    
+    /**
+     * Fetch one day's schedule for the prefetcher, logging in first or again once if needed
+     */
+    private static List<Course> prefetchSchedule(StudentAccount account, String dateStr) throws IOException, URISyntaxException {
+        if (!account.isLoggedIn) {
+            login(account);
+            if (!account.isLoggedIn) {
+                return null;
+            }
+        }
+        
+        // Logging in loads today's schedule, which may already cover this date
+        if (scheduleCache.contains(account.userId(), dateStr)) {
+            return scheduleCache.get(account.userId(), dateStr);
+        }
+        
+        List<Course> schedule = fetchSchedule(account, dateStr);
+        if (schedule == null) {
+            relogin(account);
+            if (account.isLoggedIn) {
+                schedule = fetchSchedule(account, dateStr);
+            }
+        }
+        return schedule;
     }
     
     /**
      * Check if courses need to be refreshed for a new day
      */
     private static boolean shouldRefreshCourses(StudentAccount account) {
-        LocalDate today = LocalDate.now();
+        LocalDate today = AppClock.today();
         
         // If we've never loaded courses or the date has changed since we last loaded courses
         return account.lastCoursesLoadDate == null || !today.equals(account.lastCoursesLoadDate);
@@ -585,156 +1239,339 @@ public class AttendanceSystem {
     /**
      * Check if any course is in session and sign in for a specific account
      */
-    private static void checkAndSignIn(StudentAccount account) {
+    static void checkAndSignIn(StudentAccount account) {
         try {
-            System.out.println("\n[" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) + 
-                    "] 检查账户 " + maskStudentNumber(account.studentNumber) + " 是否有课程需要打卡...");
+            Log.debug("sign_in", account, "检查是否有课程需要打卡...");
             
             // Check if we need to refresh courses for a new day
             if (shouldRefreshCourses(account)) {
-                System.out.println("检测到新的一天，刷新课程列表...");
+                Log.info("schedule", account, "检测到新的一天，刷新课程列表...");
                 loadTodayCourses(account);
             }
             // If no courses for today, load them
-            else if (account.todayCourses.isEmpty()) {
+            else if (account.todayCourses().isEmpty()) {
                 loadTodayCourses(account);
             }
             
-            // For connection to sign in
-            CloseableHttpClient httpClient = HttpClients.custom().build();
-            
             // Current time
-            LocalDateTime currentTime = LocalDateTime.now();
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+            long nowMillis = AppClock.millis();
             
             // Check if any course is currently in session
             boolean foundActiveCourse = false;
             
-            for (Map.Entry<String, JSONObject> entry : account.todayCourses.entrySet()) {
-                String courseSchedId = entry.getKey();
-                JSONObject course = entry.getValue();
-                
-                String classBeginTime = course.getString("classBeginTime");
-                String classEndTime = course.getString("classEndTime");
-                String courseName = course.getString("courseName");
+            // Courses currently in session that haven't been signed in yet
+            DayCourses day = account.day;
+            for (int i = day.nextToSign(0, nowMillis); i >= 0; i = day.nextToSign(i + 1, nowMillis)) {
+                Course course = day.courses.get(i);
+                foundActiveCourse = true;
                 
-                // Parse course times
-                LocalDateTime courseStart = LocalDateTime.parse(classBeginTime, formatter).minusMinutes(10); // Can sign in 10 mins before class
-                LocalDateTime courseEnd = LocalDateTime.parse(classEndTime, formatter);
-                
-                // Check if this course is currently in session and hasn't been signed in yet
-                if (currentTime.isAfter(courseStart) && currentTime.isBefore(courseEnd) && !account.signedCourses.contains(courseSchedId)) {
-                    foundActiveCourse = true;
-                    System.out.println("检测到课程 [" + courseName + "] 正在进行中，尝试打卡...");
-                    
-                    // Perform sign in
-                    long currentTimestamp = System.currentTimeMillis();
-                    String url = "http://iclass.buaa.edu.cn:8081/app/course/stu_scan_sign.action" +
-                            "?courseSchedId=" + courseSchedId + "&timestamp=" + currentTimestamp;
-                            
-                    URI attendanceUri = new URIBuilder(url)
-                            .addParameter("id", account.userId)
-                            .build();
-                            
-                    HttpPost attendancePost = new HttpPost(attendanceUri);
-                    
-                    try (CloseableHttpResponse response = httpClient.execute(attendancePost)) {
-                        if (response.getStatusLine().getStatusCode() == 200) {
-                            String responseText = EntityUtils.toString(response.getEntity());
-                            JSONObject data = new JSONObject(responseText);
-                            if ("1".equals(data.getString("STATUS"))) {
-                                System.out.println("疑似未开启扫码签到：" + courseName + 
-                                        "。\t上课时间：" + classBeginTime.substring(0, 10) + " " + 
-                                        classBeginTime.substring(11, 16) + "~" + classEndTime.substring(11, 16) + "。");
-                            } else {
-                                System.out.println("✅ 已成功打卡：" + courseName + 
-                                        "。\t上课时间：" + classBeginTime.substring(0, 10) + " " + 
-                                        classBeginTime.substring(11, 16) + "~" + classEndTime.substring(11, 16) + 
-                                        "。\t当前时间：" + currentTime);
-                                // Add to the set of signed courses to prevent duplicate sign-ins
-                                account.signedCourses.add(courseSchedId);
-                            }
-                        } else {
-                            System.out.println("❌ 打卡失败：" + courseName + 
-                                    "。\t上课时间：" + classBeginTime.substring(0, 10) + " " + 
-                                    classBeginTime.substring(11, 16) + "~" + classEndTime.substring(11, 16) + "。");
-                        }
-                    }
+                // At most one request per course in flight; the callback records the outcome
+                if (account.claimSigning(course)) {
+                    Log.event(Log.Level.INFO, "sign_in", account, course, "submitted", -1, "课程正在进行中，尝试打卡...");
+                    submitSignIn(account, course, true, 0);
                 }
             }
             
             if (!foundActiveCourse) {
-                System.out.println("当前没有需要打卡的课程");
+                Log.debug("sign_in", account, "当前没有需要打卡的课程");
             }
             
-            httpClient.close();
-            
         } catch (Exception e) {
-            System.out.println("检查和打卡过程中发生错误: " + e.getMessage());
-            e.printStackTrace();
+            Log.error("sign_in", account, e, "检查和打卡过程中发生错误: {}", e.getMessage());
         }
     }
     
     /**
-     * Load all accounts from the configuration file
+     * Send the sign-in request for one course without waiting for the response.
+     * The caller must have claimed the course with claimSigning; it stays claimed through any
+     * scheduled retries and the final callback removes it, so only one attempt is ever in flight.
      */
-    private static void loadAccounts() {
-        File file = new File(ACCOUNTS_FILE);
-        if (file.exists()) {
-            try (FileReader reader = new FileReader(file)) {
-                StringBuilder content = new StringBuilder();
-                char[] buffer = new char[1024];
-                int read;
-                while ((read = reader.read(buffer)) != -1) {
-                    content.append(buffer, 0, read);
+    private static void submitSignIn(StudentAccount account, Course course, boolean retryOnAuthFailure, int retry) {
+        if (account.isSigned(course) || !studentAccounts.containsKey(account.studentNumber)) {
+            account.releaseSigning(course);
+            return;
+        }
+        if (signInLog.isSigned(account.studentNumber, course)) {
+            Log.event(Log.Level.INFO, "sign_in", account, course, "already_signed", -1, "打卡记录显示已打卡，跳过");
+            account.markSigned(course);
+            return;
+        }
+        // Checked before the limiter permit: a rejection here sends nothing, so it must not count as a
+        // failed request and cut the sign-in rate
+        if (!CircuitBreaker.SIGN_IN.allow()) {
+            // Picked up again by the account's next wakeup once the endpoint is back
+            Log.event(Log.Level.DEBUG, "sign_in", account, course, "breaker_open", -1, "签到接口暂时不可用，稍后再试");
+            account.releaseSigning(course);
+            return;
+        }
+        
+        if (AppClock.millis() >= course.endMillis) {
+            missedDeadline(account, course);
+            return;
+        }
+        
+        // Under backlog the courses that end soonest go first. Waiting for the permit parks no thread;
+        // the request is sent from the callback pool once it is granted.
+        UpstreamLimiter limiter = UpstreamLimiter.ICLASS_SIGN;
+        limiter.acquireAsync(course.endMillis)
+                .thenRunAsync(() -> sendSignIn(account, course, limiter, retryOnAuthFailure, retry), AsyncSignInClient.callbacks());
+    }
+    
+    /**
+     * Send a sign-in once the limiter granted its permit; the callback records the outcome
+     */
+    private static void sendSignIn(StudentAccount account, Course course, UpstreamLimiter limiter,
+            boolean retryOnAuthFailure, int retry) {
+        if (AppClock.millis() >= course.endMillis) {
+            // Waited past the end; the permit is better spent on a course still open
+            limiter.cancel();
+            missedDeadline(account, course);
+            return;
+        }
+        
+        long start = System.nanoTime();
+        try {
+            AsyncSignInClient.post(signInUri(account, course.id))
+                    .whenComplete((result, error) -> {
+                        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        if (error instanceof AsyncSignInClient.BacklogFullException) {
+                            // Nothing was sent, so this says nothing about the upstream
+                            limiter.cancel();
+                        } else {
+                            limiter.release(error == null && result.statusCode < 500 && result.statusCode != 429, latencyMillis);
+                            Metrics.record(Metrics.Phase.SIGN_IN, start, error == null && result.statusCode == 200);
+                        }
+                        handleSignInResult(account, course, result, error, retryOnAuthFailure, retry, latencyMillis);
+                    });
+        } catch (Exception e) {
+            limiter.release(false, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            account.releaseSigning(course);
+            Log.event(Log.Level.ERROR, "sign_in", account, course, "error", -1, "提交打卡请求时发生错误: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Give up on a course that ended before its sign-in could be sent
+     */
+    private static void missedDeadline(StudentAccount account, Course course) {
+        Metrics.deadlineMiss();
+        account.releaseSigning(course);
+        signInLog.record(account.studentNumber, course, SignInLog.FAILED);
+        Log.event(Log.Level.WARN, "sign_in", account, course, "deadline_missed", -1, "❌ 打卡失败：课程已结束，未能及时提交");
+    }
+    
+    /**
+     * Record the outcome of a sign-in request; runs on a callback thread
+     */
+    private static void handleSignInResult(StudentAccount account, Course course, HttpResult result, Throwable error,
+            boolean retryOnAuthFailure, int retry, long latencyMillis) {
+        boolean resubmitted = false;
+        try {
+            if (error != null) {
+                Log.event(Log.Level.WARN, "sign_in", account, course, "error", latencyMillis, "❌ 打卡失败（第 {} 次）：{}", retry + 1, error.getMessage());
+                resubmitted = scheduleSignInRetry(account, course, retry);
+                return;
+            }
+            
+            // Log in again once if the session was rejected, then retry this course.
+            // Logging in blocks, so it runs off the callback threads; the course stays claimed meanwhile.
+            if (isAuthFailure(result.statusCode, result.body)) {
+                if (retryOnAuthFailure) {
+                    resubmitted = true;
+                    signInReloginExecutor.execute(() -> reloginAndResubmit(account, course));
+                    return;
                 }
-                
-                JSONObject data = new JSONObject(content.toString());
-                JSONArray accounts = data.getJSONArray("accounts");
-                
-                studentAccounts.clear();
-                
-                for (int i = 0; i < accounts.length(); i++) {
-                    JSONObject accountJson = accounts.getJSONObject(i);
-                    String studentNumber = accountJson.getString("student_number");
-                    String password = accountJson.getString("password");
-                    
-                    StudentAccount account = new StudentAccount(studentNumber, password);
-                    studentAccounts.put(studentNumber, account);
+                Log.event(Log.Level.WARN, "sign_in", account, course, "rejected", latencyMillis, "❌ 打卡失败：会话被拒绝");
+                signInLog.record(account.studentNumber, course, SignInLog.FAILED);
+                return;
+            }
+            
+            if (result.statusCode == 200) {
+                JSONObject data = new JSONObject(result.body);
+                // Any JSON answer means the server still accepts the session
+                account.lastSessionOkTime = AppClock.millis();
+                if ("1".equals(data.getString("STATUS"))) {
+                    Log.event(Log.Level.INFO, "sign_in", account, course, "not_open", latencyMillis, "疑似未开启扫码签到（第 {} 次）", retry + 1);
+                    resubmitted = scheduleSignInRetry(account, course, retry);
+                } else {
+                    Log.event(Log.Level.INFO, "sign_in", account, course, "success", latencyMillis,
+                            "✅ 已成功打卡，上课时间：{} ~ {}", course.classBeginTime, course.classEndTime);
+                    // Mark the course signed to prevent duplicate sign-ins, also across restarts
+                    signInLog.record(account.studentNumber, course, SignInLog.SIGNED);
+                    account.markSigned(course);
+                    if (wakeupScheduler != null) {
+                        wakeupScheduler.reschedule(account);
+                    }
                 }
+            } else {
+                Log.event(Log.Level.WARN, "sign_in", account, course, "http_" + result.statusCode, latencyMillis,
+                        "❌ 打卡失败（第 {} 次）", retry + 1);
+                resubmitted = scheduleSignInRetry(account, course, retry);
+            }
+        } catch (Exception e) {
+            Log.error("sign_in", account, e, "处理打卡结果时发生错误: {}", e.getMessage());
+        } finally {
+            if (!resubmitted) {
+                account.releaseSigning(course);
+            }
+        }
+    }
+    
+    /**
+     * Retry a sign-in shortly while the course is still open; returns false if it gave up.
+     * Retries don't log in again on a rejected session, the next wakeup takes care of that.
+     */
+    private static boolean scheduleSignInRetry(StudentAccount account, Course course, int retry) {
+        int next = retry + 1;
+        boolean scheduled = SignInRetryPolicy.schedule(next, course.endMillis, () -> submitSignIn(account, course, false, next));
+        if (!scheduled) {
+            Log.event(Log.Level.WARN, "sign_in", account, course, "gave_up", -1, "课程即将结束，停止重试打卡");
+            signInLog.record(account.studentNumber, course, SignInLog.FAILED);
+        }
+        return scheduled;
+    }
+    
+    /**
+     * Log in again after a rejected sign-in and send it once more; gives up if a tick holds the account
+     */
+    private static void reloginAndResubmit(StudentAccount account, Course course) {
+        if (account.busy.compareAndSet(false, true)) {
+            try {
+                relogin(account);
+            } finally {
+                account.busy.set(false);
+            }
+            if (account.isLoggedIn) {
+                submitSignIn(account, course, false, 0);
+                return;
+            }
+        }
+        account.releaseSigning(course);
+        Log.event(Log.Level.WARN, "sign_in", account, course, "relogin_failed", -1, "❌ 打卡失败：重新登录未成功");
+        signInLog.record(account.studentNumber, course, SignInLog.FAILED);
+    }
+    
+    /**
+     * Build the scan sign-in URI for one course
+     */
+    private static URI signInUri(StudentAccount account, String courseSchedId) throws URISyntaxException {
+        // The server checks this against its own time, so it must be real time even when
+        // autosign.date moves the scheduling clock
+        long currentTimestamp = System.currentTimeMillis();
+        String url = Endpoints.SCAN_SIGN +
+                "?courseSchedId=" + courseSchedId + "&timestamp=" + currentTimestamp;
                 
-                System.out.println("已加载 " + studentAccounts.size() + " 个账户");
-            } catch (Exception e) {
-                System.out.println("加载账户信息时出错: " + e.getMessage());
-                e.printStackTrace();
+        return new URIBuilder(url)
+                .addParameter("id", account.userId())
+                .build();
+    }
+    
+    /**
+     * Load all accounts from the snapshot and journal, one account at a time
+     */
+    private static void loadAccounts() {
+        try {
+            studentAccounts.clear();
+            boolean found = accountStore.load(
+                    (studentNumber, password) -> studentAccounts.put(studentNumber, new StudentAccount(studentNumber, password)),
+                    studentAccounts::remove);
+            if (found) {
+                Log.info("accounts", null, "已加载 {} 个账户", studentAccounts.size());
+            } else {
+                Log.info("accounts", null, "账户配置文件不存在，将创建新文件");
             }
-        } else {
-            System.out.println("账户配置文件不存在，将创建新文件");
+        } catch (Exception e) {
+            Log.error("accounts", null, e, "加载账户信息时出错: {}", e.getMessage());
         }
     }
     
     /**
-     * Save all accounts to the configuration file
+     * Register and persist one account, then wake it so it logs in in the background
      */
-    private static void saveAccounts() {
-        try (FileWriter writer = new FileWriter(ACCOUNTS_FILE)) {
-            JSONObject data = new JSONObject();
-            JSONArray accounts = new JSONArray();
-            
-            for (Map.Entry<String, StudentAccount> entry : studentAccounts.entrySet()) {
-                StudentAccount account = entry.getValue();
-                JSONObject accountJson = new JSONObject();
-                accountJson.put("student_number", account.studentNumber);
-                accountJson.put("password", account.password);
-                accounts.put(accountJson);
+    static StudentAccount addAccount(String studentNumber, String password) throws IOException {
+        if (studentNumber.isEmpty() || password.isEmpty()) {
+            throw new IllegalArgumentException("学号和密码不能为空");
+        }
+        StudentAccount account = new StudentAccount(studentNumber, password);
+        if (studentAccounts.putIfAbsent(studentNumber, account) != null) {
+            throw new IllegalStateException("该学号已存在");
+        }
+        try {
+            accountStore.add(studentNumber, password);
+        } catch (IOException e) {
+            studentAccounts.remove(studentNumber, account);
+            throw e;
+        }
+        wake(account);
+        return account;
+    }
+    
+    /**
+     * Register a batch of accounts with a single write to the account store; accounts whose student
+     * number is already registered are left out. Returns the accounts actually added.
+     */
+    static List<StudentAccount> addAccounts(Collection<StudentAccount> accounts) throws IOException {
+        List<StudentAccount> added = new ArrayList<>(accounts.size());
+        Map<String, String> passwords = new LinkedHashMap<>();
+        for (StudentAccount account : accounts) {
+            if (studentAccounts.putIfAbsent(account.studentNumber, account) == null) {
+                added.add(account);
+                passwords.put(account.studentNumber, account.password);
             }
-            
-            data.put("accounts", accounts);
-            writer.write(data.toString(2)); // Pretty print with indent of 2
-            
+        }
+        try {
+            accountStore.addAll(passwords);
         } catch (IOException e) {
-            System.out.println("保存账户信息时出错: " + e.getMessage());
-            e.printStackTrace();
+            for (StudentAccount account : added) {
+                studentAccounts.remove(account.studentNumber, account);
+            }
+            throw e;
+        }
+        for (StudentAccount account : added) {
+            wake(account);
+        }
+        return added;
+    }
+    
+    /**
+     * Unregister and stop waking an account; returns false if there was no such account
+     */
+    static boolean deleteAccount(String studentNumber) throws IOException {
+        StudentAccount removed = studentAccounts.remove(studentNumber);
+        if (removed == null) {
+            return false;
+        }
+        if (wakeupScheduler != null) {
+            wakeupScheduler.cancel(removed);
+        }
+        accountStore.remove(studentNumber);
+        return true;
+    }
+    
+    private static void wake(StudentAccount account) {
+        WakeupScheduler scheduler = wakeupScheduler;
+        if (scheduler != null && shardCoordinator.owns(account.studentNumber)) {
+            scheduler.scheduleNow(account);
+        }
+    }
+    
+    /**
+     * Masked student number, state and next wakeup of every account, for the control API
+     */
+    static JSONArray accountsToJson() {
+        JSONArray list = new JSONArray();
+        WakeupScheduler scheduler = wakeupScheduler;
+        for (StudentAccount account : studentAccounts.values()) {
+            JSONObject json = new JSONObject();
+            json.put("student_number", maskStudentNumber(account.studentNumber));
+            json.put("owned", shardCoordinator.owns(account.studentNumber));
+            json.put("logged_in", account.isLoggedIn);
+            Long wakeAt = scheduler == null ? null : scheduler.scheduledFor(account);
+            if (wakeAt != null) {
+                json.put("next_wake", Instant.ofEpochMilli(wakeAt).toString());
+            }
+            list.put(json);
         }
+        return list;
     }
-}
\ No newline at end of file
+}
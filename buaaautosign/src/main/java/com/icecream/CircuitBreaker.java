@@ -0,0 +1,244 @@
+package com.icecream;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker for one upstream endpoint. After a run of consecutive failures (I/O errors, 5xx
+ * or 429) it opens and every request to the endpoint fails at once without touching the network.
+ * While open, a single request without credentials probes the endpoint in the background, first after
+ * the open interval and then at doubling intervals. The probe uses the method the endpoint serves, and
+ * only a healthy status, 2xx or 3xx unless configured otherwise per endpoint, closes the breaker.
+ * Accounts are never used as probes, so a login is only attempted once it can succeed.
+ */
+final class CircuitBreaker {
+    static final int FAILURE_THRESHOLD = Config.integer("autosign.breaker.failures", 10);
+    static final long OPEN_MILLIS = TimeUnit.SECONDS.toMillis(Config.longValue("autosign.breaker.openSeconds", 30L));
+    static final long MAX_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(Config.longValue("autosign.breaker.maxOpenSeconds", 300L));
+
+    private static final ScheduledExecutorService PROBES =
+            Executors.newSingleThreadScheduledExecutor(TickEngine.namedDaemonThreads("breaker-probe"));
+
+    static final CircuitBreaker SSO_LOGIN = new CircuitBreaker("sso_login", Endpoints.SSO_LOGIN, "GET", OPEN_MILLIS);
+    static final CircuitBreaker LOGIN_BUAA = new CircuitBreaker("login_buaa", Endpoints.LOGIN_BUAA, "GET", OPEN_MILLIS);
+    static final CircuitBreaker SCHEDULE = new CircuitBreaker("course_schedule", Endpoints.COURSE_SCHEDULE, "GET", OPEN_MILLIS);
+    // Without an account id the server answers the sign-in POST with an error and signs nobody in
+    static final CircuitBreaker SIGN_IN = new CircuitBreaker("scan_sign", Endpoints.SCAN_SIGN, "POST", OPEN_MILLIS);
+
+    private static final List<CircuitBreaker> ALL = Arrays.asList(SSO_LOGIN, LOGIN_BUAA, SCHEDULE, SIGN_IN);
+
+    enum State {
+        CLOSED("正常"), OPEN("熔断"), HALF_OPEN("探测中");
+
+        final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Thrown instead of sending a request while the endpoint's breaker is open
+     */
+    static final class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        OpenException(CircuitBreaker breaker) {
+            super(breaker.name + " 暂时不可用，已熔断");
+        }
+    }
+
+    private final String name;
+    private final String probeUrl;
+    private final String probeMethod;
+    private final long openMillis;
+    private final BitSet healthyStatus;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long nextProbeMillis;
+    private long probeDelayMillis;
+    private long opens;
+    private long rejected;
+    private volatile Runnable onClose;
+
+    /**
+     * @param probeMethod the HTTP method the endpoint serves, used for the probe
+     * @param openMillis  how long the breaker stays open before the first probe
+     */
+    CircuitBreaker(String name, String probeUrl, String probeMethod, long openMillis) {
+        this.name = name;
+        this.probeUrl = probeUrl;
+        this.probeMethod = probeMethod;
+        this.openMillis = openMillis;
+        this.probeDelayMillis = openMillis;
+        this.healthyStatus = parseStatus(Config.string("autosign.breaker." + name + ".healthyStatus", "200-399"));
+    }
+
+    /**
+     * Status codes from a list such as "200-399,404"
+     */
+    private static BitSet parseStatus(String spec) {
+        BitSet codes = new BitSet();
+        for (String part : spec.split(",")) {
+            String range = part.trim();
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int from = Integer.parseInt(range.substring(0, dash < 0 ? range.length() : dash).trim());
+            int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1).trim());
+            codes.set(from, to + 1);
+        }
+        return codes;
+    }
+
+    /**
+     * The breaker guarding requests to this URI, or null for requests that have none (e.g. redirects)
+     */
+    static CircuitBreaker forUri(URI uri) {
+        if (Endpoints.sameOrigin(uri, Endpoints.SSO)) {
+            return SSO_LOGIN;
+        }
+        for (CircuitBreaker breaker : ALL) {
+            URI endpoint = URI.create(breaker.probeUrl);
+            if (breaker != SSO_LOGIN && endpoint.getPath().equals(uri.getPath()) && Endpoints.sameOrigin(uri, breaker.probeUrl)) {
+                return breaker;
+            }
+        }
+        return null;
+    }
+
+    static List<CircuitBreaker> all() {
+        return ALL;
+    }
+
+    /**
+     * The first of the breakers that is not closed, counting a rejection on it; null if all are closed
+     */
+    static CircuitBreaker firstOpen(CircuitBreaker... breakers) {
+        for (CircuitBreaker breaker : breakers) {
+            if (!breaker.allow()) {
+                return breaker;
+            }
+        }
+        return null;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Run after the breaker closes again, e.g. to wake accounts that were held back
+     */
+    void onClose(Runnable listener) {
+        onClose = listener;
+    }
+
+    /**
+     * Whether a request may be sent now; counts a rejection if not
+     */
+    synchronized boolean allow() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    /**
+     * Report how a request went; enough consecutive failures open the breaker.
+     * Outcomes of requests sent before it opened do not change an open breaker, only the probe does.
+     */
+    synchronized void record(boolean success) {
+        if (state != State.CLOSED) {
+            return;
+        }
+        if (success) {
+            consecutiveFailures = 0;
+            return;
+        }
+        if (++consecutiveFailures >= FAILURE_THRESHOLD) {
+            state = State.OPEN;
+            opens++;
+            probeDelayMillis = openMillis;
+            scheduleProbe();
+            Log.warn("breaker", null, "{} 连续失败 {} 次，暂停请求，{} 秒后探测", name, consecutiveFailures,
+                    TimeUnit.MILLISECONDS.toSeconds(probeDelayMillis));
+        }
+    }
+
+    private void scheduleProbe() {
+        nextProbeMillis = System.currentTimeMillis() + probeDelayMillis;
+        PROBES.schedule(this::probe, probeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void probe() {
+        synchronized (this) {
+            state = State.HALF_OPEN;
+        }
+        int statusCode = -1;
+        String failure;
+        try (CloseableHttpResponse response = SharedHttpClient.get().execute(
+                RequestBuilder.create(probeMethod).setUri(probeUrl).build())) {
+            statusCode = response.getStatusLine().getStatusCode();
+            failure = healthyStatus.get(statusCode) ? null : "状态码 " + statusCode;
+        } catch (IOException | RuntimeException e) {
+            failure = e.getMessage();
+        }
+        Runnable listener = null;
+        synchronized (this) {
+            if (failure == null) {
+                state = State.CLOSED;
+                consecutiveFailures = 0;
+                listener = onClose;
+                Log.info("breaker", null, "{} 探测成功（状态码 {}），恢复请求", name, statusCode);
+            } else {
+                state = State.OPEN;
+                probeDelayMillis = Math.min(MAX_OPEN_MILLIS, probeDelayMillis * 2);
+                scheduleProbe();
+                Log.debug("breaker", null, "{} 探测失败: {}，{} 秒后重试", name, failure,
+                        TimeUnit.MILLISECONDS.toSeconds(probeDelayMillis));
+            }
+        }
+        if (listener != null) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                Log.error("breaker", null, e, "{} 恢复后唤醒账户失败: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    synchronized long rejected() {
+        return rejected;
+    }
+
+    synchronized long opens() {
+        return opens;
+    }
+
+    synchronized String describe() {
+        StringBuilder builder = new StringBuilder(name).append(": ").append(state.label);
+        if (state == State.OPEN) {
+            long seconds = Math.max(0, TimeUnit.MILLISECONDS.toSeconds(nextProbeMillis - System.currentTimeMillis()));
+            builder.append("，").append(seconds).append(" 秒后探测");
+        } else if (state == State.CLOSED && consecutiveFailures > 0) {
+            builder.append("，连续失败 ").append(consecutiveFailures).append(" 次");
+        }
+        return builder.append("，熔断 ").append(opens).append(" 次，拒绝请求 ").append(rejected).append(" 次").toString();
+    }
+}
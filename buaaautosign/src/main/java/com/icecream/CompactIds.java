@@ -0,0 +1,81 @@
+package com.icecream;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Packs the short ASCII identifiers iClass hands out, numeric user ids and hex session ids, into
+ * one byte array each: two digits or hex characters per byte when the id allows it, otherwise one
+ * byte per character. Saves the String object and half the characters for every account.
+ */
+final class CompactIds {
+    private static final int RAW = 0;
+    private static final int HEX_LOWER = 1;
+    private static final int HEX_UPPER = 2;
+    private static final int ODD_LENGTH = 0x10;
+    private static final char[] LOWER_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    static final byte[] EMPTY = pack("");
+
+    private CompactIds() {
+    }
+
+    static byte[] pack(String id) {
+        int form = hexForm(id);
+        if (form == RAW) {
+            byte[] text = id.getBytes(StandardCharsets.UTF_8);
+            byte[] packed = new byte[text.length + 1];
+            packed[0] = RAW;
+            System.arraycopy(text, 0, packed, 1, text.length);
+            return packed;
+        }
+        int length = id.length();
+        byte[] packed = new byte[1 + (length + 1) / 2];
+        packed[0] = (byte) (form | ((length & 1) == 1 ? ODD_LENGTH : 0));
+        for (int i = 0; i < length; i++) {
+            int nibble = Character.digit(id.charAt(i), 16);
+            packed[1 + i / 2] |= (byte) ((i & 1) == 0 ? nibble << 4 : nibble);
+        }
+        return packed;
+    }
+
+    static String unpack(byte[] packed) {
+        int form = packed[0] & 0x0f;
+        if (form == RAW) {
+            return new String(packed, 1, packed.length - 1, StandardCharsets.UTF_8);
+        }
+        int length = (packed.length - 1) * 2 - ((packed[0] & ODD_LENGTH) != 0 ? 1 : 0);
+        char[] digits = form == HEX_UPPER ? UPPER_DIGITS : LOWER_DIGITS;
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            int b = packed[1 + i / 2];
+            text[i] = digits[(i & 1) == 0 ? (b >> 4) & 0x0f : b & 0x0f];
+        }
+        return new String(text);
+    }
+
+    /**
+     * HEX_LOWER or HEX_UPPER when every character is a hex digit of one case (digits alone count as lower), else RAW
+     */
+    private static int hexForm(String id) {
+        if (id.isEmpty()) {
+            return RAW;
+        }
+        boolean lower = false;
+        boolean upper = false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c >= 'a' && c <= 'f') {
+                lower = true;
+            } else if (c >= 'A' && c <= 'F') {
+                upper = true;
+            } else if (c < '0' || c > '9') {
+                return RAW;
+            }
+        }
+        if (lower && upper) {
+            return RAW;
+        }
+        return upper ? HEX_UPPER : HEX_LOWER;
+    }
+}
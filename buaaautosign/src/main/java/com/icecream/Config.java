@@ -0,0 +1,51 @@
+package com.icecream;
+
+/**
+ * Runtime settings, read from system properties (e.g. -Dautosign.tick.threads=32)
+ */
+final class Config {
+    private Config() {
+    }
+
+    /**
+     * Tick executor mode: "pool" for a bounded thread pool, "virtual" for virtual threads (Java 21+)
+     */
+    static final String TICK_MODE = string("autosign.tick.mode", "pool");
+
+    /**
+     * Number of worker threads when running in pool mode
+     */
+    static final int TICK_THREADS = integer("autosign.tick.threads", 16);
+
+    /**
+     * Time budget for a single tick; accounts not finished by then count as skipped
+     */
+    static final long TICK_BUDGET_MILLIS = longValue("autosign.tick.budgetMillis", 50_000L);
+
+    static String string(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    static int integer(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(string(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.out.println("配置项 " + key + " 格式错误，使用默认值 " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long longValue(String key, long defaultValue) {
+        try {
+            return Long.parseLong(string(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.out.println("配置项 " + key + " 格式错误，使用默认值 " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static boolean bool(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(string(key, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,158 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+
+import java.net.URI;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Opens connections to iClass shortly before each sign-in wave, i.e. each distinct sign-in window
+ * start in today's schedules, so the burst of sign-ins does not also pay for DNS, TCP and TLS.
+ * The number of connections follows the number of accounts in the wave, up to a cap. Handshake time
+ * counts as saved only once a request runs on a warmed connection. The shared pool knows which
+ * connection each request runs on; the sign-in client does not say, so there the count is an estimate
+ * and both totals are reported as such.
+ */
+final class ConnectionWarmer {
+    static final boolean ENABLED = Config.bool("autosign.warmup.enabled", true);
+    static final long LEAD_MILLIS = TimeUnit.SECONDS.toMillis(Config.longValue("autosign.warmup.leadSeconds", 45L));
+    static final int MAX_CONNECTIONS = Config.integer("autosign.warmup.maxConnections", 32);
+
+    /**
+     * How long the sign-in client keeps idle connections open; must outlast the lead time
+     */
+    static final long KEEP_ALIVE_SECONDS = Config.longValue("autosign.warmup.keepAliveSeconds", 300L);
+
+    private static final DateTimeFormatter WAVE_FORMAT = DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
+
+    private static final AtomicLong WAVES = new AtomicLong();
+    private static final AtomicLong CONNECTIONS = new AtomicLong();
+    private static final AtomicLong REUSED = new AtomicLong();
+    private static final AtomicLong SAVED_NANOS = new AtomicLong();
+
+    /**
+     * Connections opened by one warm-up and the handshake time they took, which a request that later
+     * runs on one of them no longer waits for
+     */
+    static final class Result {
+        final int connections;
+        final long handshakeNanos;
+
+        Result(int connections, long handshakeNanos) {
+            this.connections = connections;
+            this.handshakeNanos = handshakeNanos;
+        }
+    }
+
+    private final Supplier<Collection<StudentAccount>> accounts;
+    private final Set<Long> plannedWaves = ConcurrentHashMap.newKeySet();
+    private final Set<Long> warmedWaves = ConcurrentHashMap.newKeySet();
+    private LocalDate wavesDay;
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(TickEngine.namedDaemonThreads("warmup"));
+
+    ConnectionWarmer(Supplier<Collection<StudentAccount>> accounts) {
+        this.accounts = accounts;
+    }
+
+    /**
+     * Plan a warm-up before every upcoming wave in a freshly loaded schedule; waves already planned or
+     * warmed today are skipped
+     */
+    synchronized void plan(CourseIndex courses) {
+        if (!ENABLED) {
+            return;
+        }
+        LocalDate today = AppClock.today();
+        if (!today.equals(wavesDay)) {
+            wavesDay = today;
+            warmedWaves.clear();
+        }
+        long now = AppClock.millis();
+        for (int i = courses.size() - 1; i >= 0; i--) {
+            long wave = courses.windowStart(i);
+            if (wave <= now) {
+                break;
+            }
+            if (!warmedWaves.contains(wave) && plannedWaves.add(wave)) {
+                AppClock.schedule(executor, () -> warm(wave), Math.max(0, wave - LEAD_MILLIS - now));
+            }
+        }
+    }
+
+    private void warm(long wave) {
+        warmedWaves.add(wave);
+        plannedWaves.remove(wave);
+        try {
+            int size = 0;
+            for (StudentAccount account : accounts.get()) {
+                CourseIndex courses = account.todayCourses();
+                for (int i = 0; i < courses.size(); i++) {
+                    if (courses.windowStart(i) == wave) {
+                        size++;
+                        break;
+                    }
+                }
+            }
+            if (size == 0) {
+                return;
+            }
+            int connections = Math.min(size, MAX_CONNECTIONS);
+            long keepAliveMillis = wave - AppClock.millis() + TimeUnit.MINUTES.toMillis(2);
+            Result api = SharedHttpClient.warm(URI.create(Endpoints.ICLASS_SERVICE), connections, keepAliveMillis);
+            Result sign = AsyncSignInClient.warm(URI.create(Endpoints.ICLASS_SIGN + "/"), connections);
+
+            WAVES.incrementAndGet();
+            CONNECTIONS.addAndGet(api.connections + sign.connections);
+            Log.info("warmup", null, "{} 批打卡（{} 个账户）已预热：接口新建 {} 个连接、签到新建 {} 个连接，握手耗时约 {} ms",
+                    WAVE_FORMAT.format(Instant.ofEpochMilli(wave)), size, api.connections, sign.connections,
+                    TimeUnit.NANOSECONDS.toMillis(api.handshakeNanos + sign.handshakeNanos));
+        } catch (Exception e) {
+            Log.error("warmup", null, e, "预热连接时发生错误: {}", e.getMessage());
+        }
+    }
+
+    static long waves() {
+        return WAVES.get();
+    }
+
+    static long connections() {
+        return CONNECTIONS.get();
+    }
+
+    /**
+     * Called by the clients when requests run, or are taken to run, on warmed connections for the first time
+     */
+    static void reused(int connections, long handshakeNanos) {
+        REUSED.addAndGet(connections);
+        SAVED_NANOS.addAndGet(handshakeNanos);
+    }
+
+    static long estimatedReusedConnections() {
+        return REUSED.get();
+    }
+
+    static double estimatedSavedSeconds() {
+        return SAVED_NANOS.get() / 1e9;
+    }
+
+    String describe() {
+        if (!ENABLED) {
+            return "连接预热: 未启用";
+        }
+        return String.format(Locale.ROOT, "连接预热: 已预热 %d 批，新建 %d 个连接，估计其中 %d 个被请求用上，节省握手时间约 %.1f 秒，待执行 %d 批",
+                waves(), connections(), estimatedReusedConnections(), estimatedSavedSeconds(), plannedWaves.size());
+    }
+}
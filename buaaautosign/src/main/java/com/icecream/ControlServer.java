@@ -0,0 +1,160 @@
+package com.icecream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP API for managing accounts of a headless daemon; off unless a port is configured.
+ * When a token is set every request must carry it as "Authorization: Bearer &lt;token&gt;".
+ *
+ * <pre>
+ * GET    /accounts                 list accounts (student numbers masked)
+ * POST   /accounts                 add one: {"student_number": "...", "password": "..."}
+ * DELETE /accounts/{studentNumber} remove one
+ * POST   /accounts/import          bulk import, CSV or JSON body; ?validate=false skips the login check
+ * POST   /check                    run a manual check of all accounts in the background
+ * </pre>
+ */
+final class ControlServer {
+    static final int PORT = Config.integer("autosign.control.port", 0);
+    static final String HOST = Config.string("autosign.control.host", "127.0.0.1");
+    static final String TOKEN = Config.string("autosign.control.token", "");
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(TickEngine.namedDaemonThreads("control-task"));
+
+    private ControlServer() {
+    }
+
+    static void startIfConfigured() {
+        if (PORT <= 0) {
+            return;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
+            server.createContext("/accounts", exchange -> handle(exchange, ControlServer::accounts));
+            server.createContext("/check", exchange -> handle(exchange, ControlServer::check));
+            server.setExecutor(Executors.newFixedThreadPool(2, TickEngine.namedDaemonThreads("control")));
+            server.start();
+            if (TOKEN.isEmpty() && !HOST.startsWith("127.") && !"localhost".equals(HOST)) {
+                Log.warn("control", null, "控制接口监听在 {} 且未设置 autosign.control.token，任何人都可以管理账户", HOST);
+            }
+            Log.info("control", null, "控制接口地址: http://{}:{}/accounts", HOST, PORT);
+        } catch (IOException e) {
+            Log.error("control", null, e, "启动控制接口失败: {}", e.getMessage());
+        }
+    }
+
+    private interface Route {
+        void serve(HttpExchange exchange) throws IOException;
+    }
+
+    private static void handle(HttpExchange exchange, Route route) throws IOException {
+        try {
+            if (!TOKEN.isEmpty() && !("Bearer " + TOKEN).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                respond(exchange, 401, error("未授权"));
+                return;
+            }
+            route.serve(exchange);
+        } catch (IllegalArgumentException | JSONException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (IllegalStateException e) {
+            respond(exchange, 409, error(e.getMessage()));
+        } catch (Exception e) {
+            Log.error("control", null, e, "处理控制请求 {} {} 失败: {}", exchange.getRequestMethod(),
+                    exchange.getRequestURI().getPath(), e.getMessage());
+            respond(exchange, 500, error(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void accounts(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/accounts") || path.equals("/accounts/")) {
+            if ("GET".equals(method)) {
+                respond(exchange, 200, new JSONObject().put("accounts", AttendanceSystem.accountsToJson()));
+            } else if ("POST".equals(method)) {
+                JSONObject body = new JSONObject(readBody(exchange));
+                AttendanceSystem.StudentAccount account = AttendanceSystem.addAccount(
+                        body.getString("student_number").trim(), body.getString("password"));
+                respond(exchange, 201, new JSONObject().put("student_number",
+                        AttendanceSystem.maskStudentNumber(account.studentNumber)));
+            } else {
+                respond(exchange, 405, error("不支持的方法 " + method));
+            }
+        } else if (path.equals("/accounts/import")) {
+            if (!"POST".equals(method)) {
+                respond(exchange, 405, error("不支持的方法 " + method));
+                return;
+            }
+            String query = exchange.getRequestURI().getQuery();
+            boolean validate = query == null || !query.contains("validate=false");
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            boolean json = contentType != null && contentType.contains("json");
+            Map<String, String> passwords = AccountImporter.parse(readBody(exchange), json);
+            respond(exchange, 200, AccountImporter.importBatch(passwords, validate).toJson());
+        } else if ("DELETE".equals(method)) {
+            String studentNumber = path.substring("/accounts/".length());
+            if (AttendanceSystem.deleteAccount(studentNumber)) {
+                respond(exchange, 200, new JSONObject().put("removed", AttendanceSystem.maskStudentNumber(studentNumber)));
+            } else {
+                respond(exchange, 404, error("未找到该学号"));
+            }
+        } else {
+            respond(exchange, 405, error("不支持的方法 " + method));
+        }
+    }
+
+    private static void check(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, error("不支持的方法 " + exchange.getRequestMethod()));
+            return;
+        }
+        BACKGROUND.execute(() -> {
+            try {
+                AttendanceSystem.checkAllAccounts();
+            } catch (Exception e) {
+                Log.error("control", null, e, "手动检查时发生错误: {}", e.getMessage());
+            }
+        });
+        respond(exchange, 202, new JSONObject().put("status", "started"));
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                buffer.write(chunk, 0, read);
+            }
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static JSONObject error(String message) {
+        return new JSONObject().put("error", String.valueOf(message));
+    }
+
+    private static void respond(HttpExchange exchange, int status, JSONObject json) throws IOException {
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.icecream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Course metadata needed for sign-in, shared by every account attending the same course schedule
+ */
+final class Course {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    final String id; // courseSchedId
+    final String courseName;
+    final String classBeginTime; // yyyy-MM-dd HH:mm:ss
+    final String classEndTime; // yyyy-MM-dd HH:mm:ss
+    final long beginMillis; // classBeginTime as epoch millis, parsed once at load time
+    final long endMillis; // classEndTime as epoch millis
+
+    Course(String id, String courseName, String classBeginTime, String classEndTime) {
+        this.id = id;
+        this.courseName = courseName;
+        this.classBeginTime = classBeginTime;
+        this.classEndTime = classEndTime;
+        this.beginMillis = toEpochMillis(classBeginTime);
+        this.endMillis = toEpochMillis(classEndTime);
+    }
+
+    private static long toEpochMillis(String time) {
+        return LocalDateTime.parse(time, TIME_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Build from one entry of the get_stu_course_sched.action result
+     */
+    static Course fromJson(JSONObject course) {
+        return new Course(course.getString("id"), course.getString("courseName"),
+                course.getString("classBeginTime"), course.getString("classEndTime"));
+    }
+
+    /**
+     * Build every entry of a get_stu_course_sched.action result array
+     */
+    static List<Course> listFromJson(JSONArray courses) {
+        List<Course> schedule = new ArrayList<>(courses.length());
+        for (int idx = 0; idx < courses.length(); idx++) {
+            schedule.add(fromJson(courses.getJSONObject(idx)));
+        }
+        return schedule;
+    }
+
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("courseName", courseName);
+        json.put("classBeginTime", classBeginTime);
+        json.put("classEndTime", classEndTime);
+        return json;
+    }
+
+    boolean sameAs(Course other) {
+        return id.equals(other.id) && courseName.equals(other.courseName)
+                && classBeginTime.equals(other.classBeginTime) && classEndTime.equals(other.classEndTime);
+    }
+}
@@ -0,0 +1,119 @@
+package com.icecream;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Immutable per-account interval index over one day's courses, sorted by sign-in window start.
+ * Finding the courses whose window contains a given instant takes two binary searches and no allocation.
+ */
+final class CourseIndex {
+    static final CourseIndex EMPTY = new CourseIndex(new Course[0], 0);
+
+    private final Course[] courses;
+    private final long[] starts; // sign-in window start, ascending
+    private final long[] ends; // course end
+    private final long[] maxEnds; // running maximum of ends, so it is ascending too
+
+    private CourseIndex(Course[] courses, long leadMillis) {
+        this.courses = courses;
+        this.starts = new long[courses.length];
+        this.ends = new long[courses.length];
+        this.maxEnds = new long[courses.length];
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < courses.length; i++) {
+            starts[i] = courses[i].beginMillis - leadMillis;
+            ends[i] = courses[i].endMillis;
+            maxEnd = Math.max(maxEnd, ends[i]);
+            maxEnds[i] = maxEnd;
+        }
+    }
+
+    /**
+     * @param leadMillis how long before classBeginTime the sign-in window opens
+     */
+    static CourseIndex of(Collection<Course> schedule, long leadMillis) {
+        if (schedule.isEmpty()) {
+            return EMPTY;
+        }
+        Course[] sorted = schedule.toArray(new Course[0]);
+        Arrays.sort(sorted, Comparator.comparingLong((Course course) -> course.beginMillis).thenComparing(course -> course.id));
+        return new CourseIndex(sorted, leadMillis);
+    }
+
+    int size() {
+        return courses.length;
+    }
+
+    boolean isEmpty() {
+        return courses.length == 0;
+    }
+
+    Course get(int i) {
+        return courses[i];
+    }
+
+    long windowStart(int i) {
+        return starts[i];
+    }
+
+    long end(int i) {
+        return ends[i];
+    }
+
+    /**
+     * Position of the course with this courseSchedId, or -1
+     */
+    int indexOf(String courseSchedId) {
+        for (int i = 0; i < courses.length; i++) {
+            if (courses[i].id.equals(courseSchedId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Number of courses whose window opened strictly before the given instant, which is also
+     * the position of the first upcoming course. Courses at positions [activeFrom(now), activeTo(now))
+     * are candidates for being active; check isActive for each.
+     */
+    int activeTo(long nowMillis) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < nowMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * First position whose course, or an earlier one, has not ended by the given instant
+     */
+    int activeFrom(long nowMillis) {
+        int low = 0;
+        int high = maxEnds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxEnds[mid] > nowMillis) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Whether the instant lies strictly inside the course's sign-in window
+     */
+    boolean isActive(int i, long nowMillis) {
+        return nowMillis > starts[i] && nowMillis < ends[i];
+    }
+}
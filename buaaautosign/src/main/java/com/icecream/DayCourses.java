@@ -0,0 +1,114 @@
+package com.icecream;
+
+import java.util.Arrays;
+
+/**
+ * One account's courses for today together with which of them are signed and which have a sign-in
+ * in flight, one bit per position in the course index, 64 positions to a word. Immutable: an account
+ * swaps in a new instance for every change, so the flags always refer to the index they were set against.
+ */
+final class DayCourses {
+    private static final long[] NONE = new long[0];
+
+    static final DayCourses EMPTY = new DayCourses(CourseIndex.EMPTY, NONE, NONE);
+
+    final CourseIndex courses;
+    private final long[] signed;
+    private final long[] signing;
+
+    private DayCourses(CourseIndex courses, long[] signed, long[] signing) {
+        this.courses = courses;
+        this.signed = signed;
+        this.signing = signing;
+    }
+
+    boolean isSigned(int index) {
+        return isSet(signed, index);
+    }
+
+    boolean isSigning(int index) {
+        return isSet(signing, index);
+    }
+
+    int signedCount() {
+        return count(signed);
+    }
+
+    int signingCount() {
+        return count(signing);
+    }
+
+    boolean anySigning() {
+        return count(signing) != 0;
+    }
+
+    /**
+     * Position of the first course at or after from whose sign-in window is open at the given instant
+     * and that is not signed yet, or -1. This is the selection each sign-in check runs.
+     */
+    int nextToSign(int from, long nowMillis) {
+        for (int i = Math.max(from, courses.activeFrom(nowMillis)), to = courses.activeTo(nowMillis); i < to; i++) {
+            if (courses.isActive(i, nowMillis) && !isSigned(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    DayCourses withSigned(int index) {
+        return new DayCourses(courses, with(signed, index, true), signing);
+    }
+
+    DayCourses withSigning(int index, boolean inFlight) {
+        return new DayCourses(courses, signed, with(signing, index, inFlight));
+    }
+
+    /**
+     * Switch to a reloaded schedule. The same day keeps its flags, matched by courseSchedId since
+     * positions may shift; a new day starts with none.
+     */
+    DayCourses reload(CourseIndex reloaded, boolean newDay) {
+        if (newDay || (count(signed) == 0 && count(signing) == 0)) {
+            return new DayCourses(reloaded, NONE, NONE);
+        }
+        long[] keptSigned = NONE;
+        long[] keptSigning = NONE;
+        for (int i = 0; i < courses.size(); i++) {
+            if (!isSigned(i) && !isSigning(i)) {
+                continue;
+            }
+            int moved = reloaded.indexOf(courses.get(i).id);
+            if (moved >= 0) {
+                keptSigned = isSigned(i) ? with(keptSigned, moved, true) : keptSigned;
+                keptSigning = isSigning(i) ? with(keptSigning, moved, true) : keptSigning;
+            }
+        }
+        return new DayCourses(reloaded, keptSigned, keptSigning);
+    }
+
+    private static boolean isSet(long[] words, int index) {
+        int word = index >>> 6;
+        return word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    private static int count(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * A copy of words with the bit at index set or cleared, grown to hold it if needed
+     */
+    private static long[] with(long[] words, int index, boolean set) {
+        int word = index >>> 6;
+        if (!set && word >= words.length) {
+            return words;
+        }
+        long[] copy = Arrays.copyOf(words, Math.max(words.length, word + 1));
+        copy[word] = set ? copy[word] | (1L << index) : copy[word] & ~(1L << index);
+        return copy;
+    }
+}
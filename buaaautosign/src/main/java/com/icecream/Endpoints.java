@@ -0,0 +1,45 @@
+package com.icecream;
+
+import java.net.URI;
+
+/**
+ * Base URLs of the upstream services; override them to point the daemon at a stand-in server
+ */
+final class Endpoints {
+    static final String SSO = trimSlash(Config.string("autosign.sso.baseUrl", "https://sso.buaa.edu.cn"));
+    static final String ICLASS_API = trimSlash(Config.string("autosign.iclass.apiBaseUrl", "https://iclass.buaa.edu.cn:8346"));
+    static final String ICLASS_SIGN = trimSlash(Config.string("autosign.iclass.signBaseUrl", "http://iclass.buaa.edu.cn:8081"));
+
+    static final String SSO_LOGIN = SSO + "/login";
+    static final String ICLASS_SERVICE = ICLASS_API + "/";
+    static final String LOGIN_BUAA = ICLASS_API + "/app/user/login_buaa.action";
+    static final String COURSE_SCHEDULE = ICLASS_API + "/app/course/get_stu_course_sched.action";
+    static final String SCAN_SIGN = ICLASS_SIGN + "/app/course/stu_scan_sign.action";
+
+    private Endpoints() {
+    }
+
+    static String ssoHost() {
+        return URI.create(SSO).getHost();
+    }
+
+    /**
+     * Whether the URI targets the same scheme, host and port as the given base URL
+     */
+    static boolean sameOrigin(URI uri, String baseUrl) {
+        URI base = URI.create(baseUrl);
+        return base.getHost() != null && base.getHost().equalsIgnoreCase(uri.getHost())
+                && effectivePort(base) == effectivePort(uri);
+    }
+
+    private static int effectivePort(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
@@ -0,0 +1,423 @@
+package com.icecream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for SSO and iClass, speaking just enough of both protocols for the login,
+ * schedule and sign-in flow. SSO, the iClass API and the sign-in endpoint listen on separate ports
+ * so each maps to its own upstream limiter, exactly like the real hosts.
+ */
+final class FakeIclassServer {
+    /**
+     * The endpoints the stand-in serves, each with its own request counter
+     */
+    enum Endpoint {
+        SSO_LOGIN_PAGE, SSO_LOGIN_POST, SSO_CALLBACK, LOGIN_BUAA, COURSE_SCHEDULE, SCAN_SIGN
+    }
+
+    /**
+     * The courses one section has on a date, as get_stu_course_sched.action returns them
+     */
+    interface ScheduleSource {
+        List<Course> coursesOn(LocalDate date, int section);
+    }
+
+    /** Password that SSO always rejects, for exercising the failure path */
+    static final String BAD_PASSWORD = "bad";
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String EXECUTION = "e1s1";
+    private static final String TGC_COOKIE = "CASTGC";
+
+    static {
+        // Otherwise Nagle's algorithm holds back each response body until the client's delayed ACK,
+        // adding about 40 ms to every request on loopback
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final int coursesPerDay;
+    private final int sections;
+    private final ExecutorService executor;
+    private final HttpServer sso;
+    private final HttpServer api;
+    private final HttpServer sign;
+
+    private final Map<String, String> userByTicket = new ConcurrentHashMap<>();
+    private final Map<String, String> userByGrantingTicket = new ConcurrentHashMap<>();
+    private final Map<String, String> sessionByUser = new ConcurrentHashMap<>();
+    private final Map<Endpoint, AtomicLong> requests = new EnumMap<>(Endpoint.class);
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final Set<Endpoint> down = ConcurrentHashMap.newKeySet();
+    private final AtomicLong signIns = new AtomicLong();
+    private volatile ScheduleSource schedules = this::aroundNow;
+
+    /**
+     * @param latencyMillis mean delay added to every response
+     * @param jitterMillis  the delay is drawn uniformly from latency ± jitter
+     * @param errorRate     fraction of requests answered with 503 instead of being served
+     * @param coursesPerDay courses in each default daily schedule, one of which runs right now on today's date
+     * @param sections      number of distinct sections per course slot; accounts in the same section share course ids
+     * @param threads       handler threads shared by all three listeners
+     */
+    FakeIclassServer(long latencyMillis, long jitterMillis, double errorRate, int coursesPerDay, int sections,
+            int threads) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.coursesPerDay = Math.max(1, coursesPerDay);
+        this.sections = Math.max(1, sections);
+        for (Endpoint endpoint : Endpoint.values()) {
+            requests.put(endpoint, new AtomicLong());
+        }
+        this.executor = Executors.newFixedThreadPool(threads, TickEngine.namedDaemonThreads("fake-iclass"));
+
+        sso = listen();
+        api = listen();
+        sign = listen();
+        sso.createContext("/login", exchange -> {
+            if ("POST".equals(exchange.getRequestMethod())) {
+                serve(exchange, Endpoint.SSO_LOGIN_POST, this::loginPost);
+            } else {
+                serve(exchange, Endpoint.SSO_LOGIN_PAGE, this::loginPage);
+            }
+        });
+        api.createContext("/", exchange -> serve(exchange, Endpoint.SSO_CALLBACK, this::ssoCallback));
+        api.createContext("/app/user/login_buaa.action", exchange -> serve(exchange, Endpoint.LOGIN_BUAA, this::loginBuaa));
+        api.createContext("/app/course/get_stu_course_sched.action",
+                exchange -> serve(exchange, Endpoint.COURSE_SCHEDULE, this::courseSchedule));
+        sign.createContext("/app/course/stu_scan_sign.action", exchange -> serve(exchange, Endpoint.SCAN_SIGN, this::scanSign));
+    }
+
+    private HttpServer listen() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        server.setExecutor(executor);
+        return server;
+    }
+
+    void start() {
+        sso.start();
+        api.start();
+        sign.start();
+    }
+
+    void stop() {
+        sso.stop(0);
+        api.stop(0);
+        sign.stop(0);
+        executor.shutdownNow();
+    }
+
+    String ssoBaseUrl() {
+        return baseUrl(sso);
+    }
+
+    String apiBaseUrl() {
+        return baseUrl(api);
+    }
+
+    String signBaseUrl() {
+        return baseUrl(sign);
+    }
+
+    private static String baseUrl(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    long requests(Endpoint endpoint) {
+        return requests.get(endpoint).get();
+    }
+
+    long totalRequests() {
+        long total = 0;
+        for (AtomicLong count : requests.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Simulate an outage: while down, the endpoint answers every request with 503 at once
+     */
+    void setDown(Endpoint endpoint, boolean isDown) {
+        if (isDown) {
+            down.add(endpoint);
+        } else {
+            down.remove(endpoint);
+        }
+    }
+
+    /**
+     * Serve schedules from the given source instead of the default one built around the current time
+     */
+    void setScheduleSource(ScheduleSource source) {
+        schedules = source;
+    }
+
+    /**
+     * Number of courses the user with this iClass id has on a date
+     */
+    int courseCount(String userId, LocalDate date) {
+        return schedules.coursesOn(date, sectionOf(userId)).size();
+    }
+
+    private int sectionOf(String userId) {
+        return Math.floorMod(userId.hashCode(), sections);
+    }
+
+    long injectedErrors() {
+        return injectedErrors.get();
+    }
+
+    long signIns() {
+        return signIns.get();
+    }
+
+    /**
+     * Request counts per endpoint, for the load test report
+     */
+    String describe() {
+        StringBuilder builder = new StringBuilder("模拟服务请求数:");
+        for (Endpoint endpoint : Endpoint.values()) {
+            builder.append(' ').append(endpoint.name().toLowerCase(Locale.ROOT)).append('=').append(requests(endpoint));
+        }
+        return builder.append("，注入错误 ").append(injectedErrors()).toString();
+    }
+
+    /**
+     * A handler body producing the response for one request
+     */
+    private interface Responder {
+        void respond(HttpExchange exchange, Map<String, String> params) throws IOException;
+    }
+
+    private void serve(HttpExchange exchange, Endpoint endpoint, Responder responder) throws IOException {
+        requests.get(endpoint).incrementAndGet();
+        try {
+            if (down.contains(endpoint)) {
+                send(exchange, 503, "text/plain", "Service Unavailable");
+                return;
+            }
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if ("POST".equals(exchange.getRequestMethod())) {
+                params.putAll(parseQuery(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+            }
+            delay();
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                send(exchange, 503, "text/plain", "Service Unavailable");
+                return;
+            }
+            responder.respond(exchange, params);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "text/plain", "Service Unavailable");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay() throws InterruptedException {
+        long millis = latencyMillis;
+        if (jitterMillis > 0) {
+            millis += ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1);
+        }
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    private void loginPage(HttpExchange exchange, Map<String, String> params) throws IOException {
+        // A known ticket-granting cookie skips the form, like CAS single sign-on
+        String username = userByGrantingTicket.get(String.valueOf(cookie(exchange, TGC_COOKIE)));
+        if (username != null) {
+            redirect(exchange, issueTicket(username));
+            return;
+        }
+        exchange.getResponseHeaders().add("Set-Cookie",
+                LoginPageParser.IP_COOKIE_NAME + "=" + ssoBaseUrl() + "; Path=/");
+        send(exchange, 200, "text/html;charset=UTF-8", "<html><body><form method=\"post\">\n"
+                + "<input name=\"username\"/>\n<input name=\"password\" type=\"password\"/>\n"
+                + "<input name=\"execution\" value=\"" + EXECUTION + "\"/>\n"
+                + "</form></body></html>\n");
+    }
+
+    private void loginPost(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String username = params.get("username");
+        if (username == null || BAD_PASSWORD.equals(params.get("password")) || !EXECUTION.equals(params.get("execution"))) {
+            send(exchange, 401, "text/html;charset=UTF-8", "<html><body><span>用户名或密码错误</span></body></html>");
+            return;
+        }
+        String grantingTicket = "TGT-" + UUID.randomUUID();
+        userByGrantingTicket.put(grantingTicket, username);
+        exchange.getResponseHeaders().add("Set-Cookie", TGC_COOKIE + "=" + grantingTicket + "; Path=/");
+        redirect(exchange, issueTicket(username));
+    }
+
+    private String issueTicket(String username) {
+        String ticket = "ST-" + UUID.randomUUID();
+        userByTicket.put(ticket, username);
+        return apiBaseUrl() + "/?ticket=" + ticket;
+    }
+
+    /**
+     * Forget every SSO session, as when ticket-granting tickets expire
+     */
+    void expireSsoSessions() {
+        userByGrantingTicket.clear();
+    }
+
+    private void ssoCallback(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String username = userByTicket.remove(String.valueOf(params.get("ticket")));
+        if (username == null) {
+            redirect(exchange, ssoBaseUrl() + "/login");
+            return;
+        }
+        String loginName = String.format(Locale.ROOT, "%X", Math.abs((long) username.hashCode()) + 0x10000L);
+        redirect(exchange, apiBaseUrl() + "/app/index.html?loginName=" + loginName + "&user=" + username);
+    }
+
+    private void loginBuaa(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String phone = params.get("phone");
+        if (phone == null || phone.isEmpty()) {
+            sendJson(exchange, "{\"STATUS\":\"1\",\"ERRMSG\":\"请先登录\"}");
+            return;
+        }
+        String userId = "U" + phone;
+        String sessionId = UUID.randomUUID().toString().replace("-", "");
+        sessionByUser.put(userId, sessionId);
+        sendJson(exchange, "{\"STATUS\":\"0\",\"result\":{\"id\":\"" + userId + "\",\"sessionId\":\"" + sessionId + "\"}}");
+    }
+
+    private void courseSchedule(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String userId = params.get("id");
+        String sessionId = exchange.getRequestHeaders().getFirst("sessionId");
+        if (userId == null || sessionId == null || !sessionId.equals(sessionByUser.get(userId))) {
+            sendJson(exchange, "{\"STATUS\":\"2\",\"ERRMSG\":\"登录已过期\"}");
+            return;
+        }
+        LocalDate date = LocalDate.parse(params.getOrDefault("dateStr", AppClock.todayStr()), DATE_FORMAT);
+        sendJson(exchange, scheduleJson(schedules.coursesOn(date, sectionOf(userId))));
+    }
+
+    private static String scheduleJson(List<Course> courses) {
+        StringBuilder json = new StringBuilder(256 * courses.size()).append("{\"STATUS\":\"0\",\"result\":[");
+        for (int i = 0; i < courses.size(); i++) {
+            Course course = courses.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(JSONObject.quote(course.id))
+                    .append(",\"courseName\":").append(JSONObject.quote(course.courseName))
+                    .append(",\"classBeginTime\":\"").append(course.classBeginTime)
+                    .append("\",\"classEndTime\":\"").append(course.classEndTime).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * The default schedule: courses two hours apart, from 08:00 or, on today's date, starting five minutes ago
+     */
+    private List<Course> aroundNow(LocalDate date, int section) {
+        List<Course> courses = new ArrayList<>(coursesPerDay);
+        LocalDateTime now = LocalDateTime.now(AppClock.get()).withNano(0);
+        for (int i = 0; i < coursesPerDay; i++) {
+            LocalDateTime first = date.equals(now.toLocalDate()) ? now.minusMinutes(5) : date.atTime(8, 0);
+            LocalDateTime begin = first.plusHours(2L * i);
+            courses.add(new Course(date.format(DATE_FORMAT) + i + "-" + section, "模拟课程" + (i + 1),
+                    begin.format(TIME_FORMAT), begin.plusMinutes(95).format(TIME_FORMAT)));
+        }
+        return courses;
+    }
+
+    private void scanSign(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String userId = params.get("id");
+        if (userId == null || !sessionByUser.containsKey(userId) || params.get("courseSchedId") == null) {
+            sendJson(exchange, "{\"STATUS\":\"2\",\"ERRMSG\":\"登录已过期\"}");
+            return;
+        }
+        signIns.incrementAndGet();
+        sendJson(exchange, "{\"STATUS\":\"0\",\"ERRMSG\":\"\"}");
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String cookie(HttpExchange exchange, String name) {
+        String header = exchange.getRequestHeaders().getFirst("Cookie");
+        if (header == null) {
+            return null;
+        }
+        for (String pair : header.split(";")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).trim().equals(name)) {
+                return pair.substring(equals + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static void redirect(HttpExchange exchange, String location) throws IOException {
+        exchange.getResponseHeaders().set("Location", location);
+        // Without a body (length -1) the server closes the connection after a GET, and the client would
+        // only find out on its next request over it
+        send(exchange, 302, "text/plain", "Found");
+    }
+
+    private static void sendJson(HttpExchange exchange, String body) throws IOException {
+        send(exchange, 200, "application/json;charset=UTF-8", body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.icecream;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The string hash shared by the shard ring and the sign-in log's in-memory idempotency keys. The log
+ * stores the day, student number and course id themselves and rebuilds its keys on replay, so only the
+ * ring depends on the values staying the same: every instance must map an account to the same slot,
+ * including instances started from an older build, so the function must never change.
+ */
+final class Hashing {
+    private Hashing() {
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer for an even spread
+     */
+    static long hash64(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,86 @@
+package com.icecream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (four per power of two, 1 ms to about 2 minutes),
+ * the same layout HDR histograms use at low precision. Recording is a binary search plus one atomic add.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int POWERS = 17;
+
+    /**
+     * Shared upper bounds of every bucket in milliseconds, ascending; values above the last go to +Inf
+     */
+    static final double[] BOUNDS_MILLIS = createBounds();
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+
+    private static double[] createBounds() {
+        double[] bounds = new double[POWERS * SUB_BUCKETS];
+        int i = 0;
+        for (int power = 0; power < POWERS; power++) {
+            double base = 1L << power;
+            for (int sub = 0; sub < SUB_BUCKETS; sub++) {
+                bounds[i++] = base * (1 + sub / (double) SUB_BUCKETS);
+            }
+        }
+        return bounds;
+    }
+
+    void recordNanos(long nanos) {
+        double millis = nanos / 1_000_000.0;
+        int low = 0;
+        int high = BOUNDS_MILLIS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS_MILLIS[mid] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        counts.incrementAndGet(low);
+        count.incrementAndGet();
+        sumMicros.addAndGet(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    double sumSeconds() {
+        return sumMicros.get() / 1_000_000.0;
+    }
+
+    /**
+     * Number of values in one bucket; index BOUNDS_MILLIS.length is the overflow bucket
+     */
+    long bucketCount(int index) {
+        return counts.get(index);
+    }
+
+    /**
+     * Upper bound in milliseconds of the bucket holding the given quantile, or -1 if empty
+     */
+    double quantileMillis(double quantile) {
+        long total = count.get();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return BOUNDS_MILLIS[i];
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
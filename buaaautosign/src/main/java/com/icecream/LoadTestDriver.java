@@ -0,0 +1,233 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the real login, schedule and sign-in code for many synthetic accounts against an in-process
+ * {@link FakeIclassServer} and reports throughput and tail latency per phase.
+ *
+ * <pre>
+ * java -cp buaaautosign/target/iclass-attendance-1.0-SNAPSHOT-jar-with-dependencies.jar com.icecream.LoadTestDriver --accounts 10000 --latencyMillis 30 --errorRate 0.01
+ * </pre>
+ *
+ * The stand-in is not production, so unless set explicitly with -D the upstream limits are lifted
+ * and the tick pool is widened; pass the production values with -D to load-test the limiter itself.
+ */
+public class LoadTestDriver {
+    private static final long DRAIN_POLL_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "10000"));
+        long latencyMillis = Long.parseLong(options.getOrDefault("latencyMillis", "20"));
+        long jitterMillis = Long.parseLong(options.getOrDefault("jitterMillis", "10"));
+        double errorRate = Double.parseDouble(options.getOrDefault("errorRate", "0"));
+        int courses = Integer.parseInt(options.getOrDefault("courses", "4"));
+        int sections = Integer.parseInt(options.getOrDefault("sections", "200"));
+        int serverThreads = Integer.parseInt(options.getOrDefault("serverThreads", "512"));
+        long drainMillis = Long.parseLong(options.getOrDefault("drainSeconds", "120")) * 1000;
+
+        FakeIclassServer server = new FakeIclassServer(latencyMillis, jitterMillis, errorRate, courses, sections, serverThreads);
+        server.start();
+
+        // Must happen before the first use of Config, Endpoints or any client
+        System.setProperty("autosign.sso.baseUrl", server.ssoBaseUrl());
+        System.setProperty("autosign.iclass.apiBaseUrl", server.apiBaseUrl());
+        System.setProperty("autosign.iclass.signBaseUrl", server.signBaseUrl());
+        // Per-account log lines and the stack traces of injected errors would dominate the report
+        defaultProperty("autosign.log.level", "OFF");
+        defaultProperty("autosign.tick.threads", "256");
+        defaultProperty("autosign.tick.budgetMillis", "600000");
+        defaultProperty("autosign.http.maxTotal", "512");
+        defaultProperty("autosign.http.maxPerRoute", "256");
+        // Probe a broken endpoint every second instead of waiting half a minute
+        defaultProperty("autosign.breaker.openSeconds", "1");
+        defaultProperty("autosign.breaker.maxOpenSeconds", "2");
+        for (String upstream : new String[]{"sso", "iclass-api", "iclass-sign"}) {
+            defaultProperty("autosign.limit." + upstream + ".rate", "1000000");
+            defaultProperty("autosign.limit." + upstream + ".maxRate", "1000000");
+            defaultProperty("autosign.limit." + upstream + ".concurrency", "1024");
+            defaultProperty("autosign.limit." + upstream + ".maxConcurrency", "1024");
+        }
+
+        PrintStream report = System.out;
+        report.println("模拟服务: sso=" + server.ssoBaseUrl() + " api=" + server.apiBaseUrl() + " sign=" + server.signBaseUrl());
+        report.println(String.format(Locale.ROOT, "账户 %d，延迟 %d±%d ms，错误率 %.3f，每日课程 %d",
+                accounts, latencyMillis, jitterMillis, errorRate, courses));
+
+        List<StudentAccount> studentAccounts = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            StudentAccount account = new StudentAccount(String.valueOf(30_000_000 + i), "password");
+            studentAccounts.add(account);
+            AttendanceSystem.studentAccounts.put(account.studentNumber, account);
+        }
+
+        TickEngine tickEngine = TickEngine.fromConfig();
+        report.println("执行方式: " + tickEngine.describe());
+
+        long requestsBefore = server.totalRequests();
+        long start = System.nanoTime();
+        TickEngine.TickReport loginReport = tickEngine.runTick(studentAccounts, AttendanceSystem::login);
+        TickEngine.TickReport signInReport = tickEngine.runTick(studentAccounts, AttendanceSystem::checkAndSignIn);
+        long drainedMillis = awaitSignIns(studentAccounts, drainMillis);
+        long totalMillis = (System.nanoTime() - start) / 1_000_000;
+        long requests = server.totalRequests() - requestsBefore;
+
+        // iClass sessions expire but SSO still remembers every account, as on a normal re-login
+        long reloginRequestsBefore = server.totalRequests();
+        TickEngine.TickReport reloginReport = tickEngine.runTick(studentAccounts, AttendanceSystem::login);
+        long reloginRequests = server.totalRequests() - reloginRequestsBefore;
+
+        // login_buaa goes down: once its breaker opens, logins fail without a request until a probe gets through
+        server.setDown(FakeIclassServer.Endpoint.LOGIN_BUAA, true);
+        long outageRequestsBefore = server.totalRequests();
+        TickEngine.TickReport outageReport = tickEngine.runTick(studentAccounts, AttendanceSystem::login);
+        long outageRequests = server.totalRequests() - outageRequestsBefore;
+        server.setDown(FakeIclassServer.Endpoint.LOGIN_BUAA, false);
+        long recoveryStart = System.currentTimeMillis();
+        while (CircuitBreaker.LOGIN_BUAA.state() != CircuitBreaker.State.CLOSED
+                && System.currentTimeMillis() - recoveryStart < drainMillis) {
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+        long recoveryMillis = System.currentTimeMillis() - recoveryStart;
+        TickEngine.TickReport recoveredReport = tickEngine.runTick(studentAccounts, AttendanceSystem::login);
+        int recovered = 0;
+        for (StudentAccount account : studentAccounts) {
+            if (account.isLoggedIn) {
+                recovered++;
+            }
+        }
+
+        int loggedIn = 0;
+        int signed = 0;
+        for (StudentAccount account : studentAccounts) {
+            if (account.isLoggedIn) {
+                loggedIn++;
+            }
+            if (account.signedCount() > 0) {
+                signed++;
+            }
+        }
+
+        report.println();
+        report.println(String.format(Locale.ROOT, "登录: %s，成功 %d，%.1f 账户/秒",
+                loginReport, loggedIn, perSecond(loggedIn, loginReport.durationMillis)));
+        report.println(String.format(Locale.ROOT, "打卡: %s，等待回调 %d ms，已打卡 %d，%.1f 账户/秒",
+                signInReport, drainedMillis, signed, perSecond(signed, signInReport.durationMillis + drainedMillis)));
+        report.println(String.format(Locale.ROOT, "总计: %d ms，%d 个请求，%.1f 请求/秒",
+                totalMillis, requests, perSecond(requests, totalMillis)));
+        report.println(String.format(Locale.ROOT, "重新登录: %s，%d 个请求，%.1f 账户/秒",
+                reloginReport, reloginRequests, perSecond(accounts, reloginReport.durationMillis)));
+        report.println(String.format(Locale.ROOT, "接口故障: login_buaa 停止服务时登录 %s，%d 个请求；恢复后 %d ms 探测通过，再次登录 %s，成功 %d",
+                outageReport, outageRequests, recoveryMillis, recoveredReport, recovered));
+        report.println(server.describe());
+        report.println();
+        report.println(describeLatency());
+        for (UpstreamLimiter limiter : UpstreamLimiter.all()) {
+            report.println(limiter.describe());
+        }
+        report.println(SharedHttpClient.describeStats());
+        for (CircuitBreaker breaker : CircuitBreaker.all()) {
+            report.println(breaker.describe());
+        }
+
+        // Nothing else may allocate while the accounts' share of the heap is measured
+        tickEngine.shutdown();
+        server.stop();
+
+        // What the accounts themselves hold: heap freed once they are no longer referenced
+        long heapWithAccounts = usedHeapAfterGc();
+        int accountCount = studentAccounts.size();
+        studentAccounts.clear();
+        AttendanceSystem.studentAccounts.clear();
+        long heapWithoutAccounts = usedHeapAfterGc();
+        report.println(String.format(Locale.ROOT, "账户内存: %d 个账户占用 %.1f MB，平均 %d 字节/账户",
+                accountCount, (heapWithAccounts - heapWithoutAccounts) / 1048576.0,
+                (heapWithAccounts - heapWithoutAccounts) / Math.max(1, accountCount)));
+        System.exit(0);
+    }
+
+    /**
+     * Wait until no sign-in is claimed or in flight, including scheduled retries; returns the time waited
+     */
+    private static long awaitSignIns(List<StudentAccount> studentAccounts, long timeoutMillis) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < timeoutMillis) {
+            if (AsyncSignInClient.inFlight() == 0 && noneSigning(studentAccounts)) {
+                break;
+            }
+            Thread.sleep(DRAIN_POLL_MILLIS);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static boolean noneSigning(List<StudentAccount> studentAccounts) {
+        for (StudentAccount account : studentAccounts) {
+            if (account.anySigning()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * p50/p90/p99/p99.9 per recorded phase; values are histogram bucket upper bounds
+     */
+    private static String describeLatency() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.ROOT, "%-24s %8s %8s %8s %8s %8s %8s%n",
+                "阶段", "成功", "失败", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)"));
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            LatencyHistogram histogram = phase.histogram;
+            if (histogram.count() == 0) {
+                continue;
+            }
+            builder.append(String.format(Locale.ROOT, "%-24s %8d %8d %8.0f %8.0f %8.0f %8.0f%n",
+                    phase.label, phase.successes.get(), phase.failures.get(),
+                    histogram.quantileMillis(0.5), histogram.quantileMillis(0.9),
+                    histogram.quantileMillis(0.99), histogram.quantileMillis(0.999)));
+        }
+        return builder.toString();
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static double perSecond(long count, long millis) {
+        return millis <= 0 ? 0 : count * 1000.0 / millis;
+    }
+
+    static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Parse "--name value" pairs
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("参数格式应为 --名称 值: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
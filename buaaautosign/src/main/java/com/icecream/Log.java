@@ -0,0 +1,257 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured log events handed to a background writer through a lock-free ring buffer, so the tick
+ * and callback threads never wait on the console. Messages use {} placeholders and are only
+ * formatted, on the writer thread, when their level is enabled; events are dropped when the buffer is full.
+ */
+final class Log {
+    enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    static final Level LEVEL = parseLevel(Config.string("autosign.log.level", "INFO"));
+    static final boolean JSON = "json".equalsIgnoreCase(Config.string("autosign.log.format", "text"));
+    static final int BUFFER_SIZE = Config.integer("autosign.log.bufferSize", 16_384);
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long SHUTDOWN_DRAIN_MILLIS = 2000;
+
+    private static final LogRing<Event> RING = new LogRing<>(BUFFER_SIZE);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static volatile boolean writerIdle;
+    private static final Thread WRITER = startWriter();
+
+    private Log() {
+    }
+
+    /**
+     * One log record; the message is kept as template and arguments until the writer formats it
+     */
+    private static final class Event {
+        final long timeMillis = System.currentTimeMillis();
+        final Level level;
+        final String phase;
+        final StudentAccount account;
+        final Course course;
+        final String outcome;
+        final long latencyMillis;
+        final Throwable error;
+        final String template;
+        final Object[] args;
+
+        Event(Level level, String phase, StudentAccount account, Course course, String outcome, long latencyMillis,
+                Throwable error, String template, Object[] args) {
+            this.level = level;
+            this.phase = phase;
+            this.account = account;
+            this.course = course;
+            this.outcome = outcome;
+            this.latencyMillis = latencyMillis;
+            this.error = error;
+            this.template = template;
+            this.args = args;
+        }
+    }
+
+    static boolean enabled(Level level) {
+        return level != Level.OFF && level.compareTo(LEVEL) >= 0;
+    }
+
+    static void debug(String phase, StudentAccount account, String template, Object... args) {
+        if (enabled(Level.DEBUG)) {
+            publish(new Event(Level.DEBUG, phase, account, null, null, -1, null, template, args));
+        }
+    }
+
+    static void info(String phase, StudentAccount account, String template, Object... args) {
+        if (enabled(Level.INFO)) {
+            publish(new Event(Level.INFO, phase, account, null, null, -1, null, template, args));
+        }
+    }
+
+    static void warn(String phase, StudentAccount account, String template, Object... args) {
+        if (enabled(Level.WARN)) {
+            publish(new Event(Level.WARN, phase, account, null, null, -1, null, template, args));
+        }
+    }
+
+    static void error(String phase, StudentAccount account, Throwable error, String template, Object... args) {
+        if (enabled(Level.ERROR)) {
+            publish(new Event(Level.ERROR, phase, account, null, null, -1, error, template, args));
+        }
+    }
+
+    /**
+     * An outcome for one course, e.g. a sign-in result; latencyMillis below zero means not measured
+     */
+    static void event(Level level, String phase, StudentAccount account, Course course, String outcome,
+            long latencyMillis, String template, Object... args) {
+        if (enabled(level)) {
+            publish(new Event(level, phase, account, course, outcome, latencyMillis, null, template, args));
+        }
+    }
+
+    /**
+     * Events lost because the buffer was full
+     */
+    static long dropped() {
+        return DROPPED.get();
+    }
+
+    private static void publish(Event event) {
+        if (!RING.offer(event)) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        if (writerIdle) {
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    private static Thread startWriter() {
+        Thread writer = TickEngine.namedDaemonThreads("log-writer").newThread(Log::drainForever);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::awaitDrained));
+        return writer;
+    }
+
+    private static void drainForever() {
+        StringBuilder batch = new StringBuilder(8192);
+        long reportedDrops = 0;
+        while (true) {
+            Event event = RING.poll();
+            if (event != null) {
+                format(event, batch);
+                if (batch.length() < 64 * 1024) {
+                    continue;
+                }
+            }
+            long drops = DROPPED.get();
+            if (drops != reportedDrops) {
+                batch.append(TIME_FORMAT.format(Instant.now())).append(" WARN  [log] 日志缓冲区已满，丢弃 ")
+                        .append(drops - reportedDrops).append(" 条日志").append(System.lineSeparator());
+                reportedDrops = drops;
+            }
+            if (batch.length() > 0) {
+                // One call per batch: the console stream is only ever locked by this thread
+                System.out.print(batch);
+                System.out.flush();
+                batch.setLength(0);
+            }
+            if (event == null) {
+                writerIdle = true;
+                if (RING.isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                writerIdle = false;
+            }
+        }
+    }
+
+    /**
+     * Give the writer a moment to print what is still buffered when the JVM exits
+     */
+    private static void awaitDrained() {
+        long deadline = System.currentTimeMillis() + SHUTDOWN_DRAIN_MILLIS;
+        while (!RING.isEmpty() && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(WRITER);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        // Let the last batch reach the console after the ring emptied
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    private static void format(Event event, StringBuilder out) {
+        String message = render(event.template, event.args);
+        String account = event.account == null ? null : AttendanceSystem.maskStudentNumber(event.account.studentNumber);
+        if (JSON) {
+            JSONObject json = new JSONObject();
+            json.put("time", TIME_FORMAT.format(Instant.ofEpochMilli(event.timeMillis)));
+            json.put("level", event.level.name());
+            json.put("phase", event.phase);
+            json.putOpt("account", account);
+            if (event.course != null) {
+                json.put("courseId", event.course.id);
+                json.put("course", event.course.courseName);
+            }
+            json.putOpt("outcome", event.outcome);
+            if (event.latencyMillis >= 0) {
+                json.put("latencyMillis", event.latencyMillis);
+            }
+            json.put("message", message);
+            if (event.error != null) {
+                json.put("error", stackTrace(event.error));
+            }
+            out.append(json).append(System.lineSeparator());
+            return;
+        }
+
+        out.append(TIME_FORMAT.format(Instant.ofEpochMilli(event.timeMillis))).append(' ')
+                .append(String.format(Locale.ROOT, "%-5s", event.level.name())).append(" [").append(event.phase).append(']');
+        if (account != null) {
+            out.append(' ').append(account);
+        }
+        if (event.course != null) {
+            out.append(" 课程=").append(event.course.courseName).append('#').append(event.course.id);
+        }
+        if (event.outcome != null) {
+            out.append(" 结果=").append(event.outcome);
+        }
+        if (event.latencyMillis >= 0) {
+            out.append(" 耗时=").append(event.latencyMillis).append("ms");
+        }
+        out.append(' ').append(message).append(System.lineSeparator());
+        if (event.error != null) {
+            out.append(stackTrace(event.error));
+        }
+    }
+
+    /**
+     * Replace each {} in order with the next argument
+     */
+    static String render(String template, Object[] args) {
+        if (args == null || args.length == 0) {
+            return template;
+        }
+        StringBuilder out = new StringBuilder(template.length() + 16 * args.length);
+        int argIndex = 0;
+        int from = 0;
+        int at;
+        while (argIndex < args.length && (at = template.indexOf("{}", from)) >= 0) {
+            out.append(template, from, at).append(args[argIndex++]);
+            from = at + 2;
+        }
+        return out.append(template, from, template.length()).toString();
+    }
+
+    private static String stackTrace(Throwable error) {
+        StringWriter writer = new StringWriter();
+        error.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println("配置项 autosign.log.level 格式错误，使用默认值 INFO");
+            return Level.INFO;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.icecream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.ContentType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the tokens the SSO login flow needs, with patterns compiled once for all accounts
+ */
+final class LoginPageParser {
+    static final String IP_COOKIE_NAME = "_7da9a";
+
+    private static final Pattern COOKIE_IP = Pattern.compile("http://\\d+\\.\\d+\\.\\d+\\.\\d+:\\d+");
+    private static final Pattern EXECUTION = Pattern.compile("<input name=\"execution\" value=\"([^\"]+)\"/>");
+    private static final Pattern LOGIN_NAME = Pattern.compile("loginName=([A-F0-9]+)");
+    private static final String EXECUTION_MARKER = "name=\"execution\"";
+
+    private LoginPageParser() {
+    }
+
+    /**
+     * Scan the login page line by line and stop decoding once the execution input is found.
+     * Returns null if the page has no execution input.
+     */
+    static String readExecution(HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return null;
+        }
+        ContentType contentType = ContentType.get(entity);
+        Charset charset = contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+
+        try (InputStream content = entity.getContent()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(content, charset));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Cheap substring check first, so the regex only runs on the one interesting line
+                if (line.contains(EXECUTION_MARKER)) {
+                    Matcher matcher = EXECUTION.matcher(line);
+                    if (matcher.find()) {
+                        return matcher.group(1);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the load balancer address SSO expects back in the _7da9a cookie, reading cookie values directly
+     */
+    static String findCookieIp(List<Cookie> cookies) {
+        for (Cookie cookie : cookies) {
+            if (IP_COOKIE_NAME.equals(cookie.getName()) && COOKIE_IP.matcher(cookie.getValue()).matches()) {
+                return cookie.getValue();
+            }
+        }
+        for (Cookie cookie : cookies) {
+            String value = cookie.getValue();
+            if (value != null && value.startsWith("http://")) {
+                Matcher matcher = COOKIE_IP.matcher(value);
+                if (matcher.find()) {
+                    return matcher.group();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The loginName (phone) parameter of the final redirect, or null if absent
+     */
+    static String extractLoginName(String location) {
+        Matcher matcher = LOGIN_NAME.matcher(location);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+}
@@ -0,0 +1,179 @@
+package com.icecream;
+
+import org.apache.http.pool.PoolStats;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-phase latency histograms and success/failure counters, rendered in Prometheus text format
+ */
+final class Metrics {
+    /**
+     * Instrumented phases of login, schedule loading, sign-in and the tick itself
+     */
+    enum Phase {
+        SSO_PAGE("login_sso_page"),
+        SSO_TICKET("login_sso_ticket"),
+        SSO_CREDENTIALS("login_sso_credentials"),
+        SSO_REDIRECTS("login_sso_redirects"),
+        LOGIN_BUAA("login_buaa"),
+        SCHEDULE_FETCH("schedule_fetch"),
+        SIGN_IN("sign_in"),
+        TICK("tick");
+
+        final String label;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong successes = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final AtomicLong DEADLINE_MISSES = new AtomicLong();
+
+    private Metrics() {
+    }
+
+    /**
+     * Count a sign-in lost because its course ended before the daemon got to it
+     */
+    static void deadlineMiss() {
+        DEADLINE_MISSES.incrementAndGet();
+    }
+
+    static long deadlineMisses() {
+        return DEADLINE_MISSES.get();
+    }
+
+    /**
+     * Record one completed phase that started at the given System.nanoTime()
+     */
+    static void record(Phase phase, long startNanos, boolean success) {
+        phase.histogram.recordNanos(System.nanoTime() - startNanos);
+        (success ? phase.successes : phase.failures).incrementAndGet();
+    }
+
+    /**
+     * Record one completed phase whose duration was measured elsewhere
+     */
+    static void recordMillis(Phase phase, long millis, boolean success) {
+        phase.histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        (success ? phase.successes : phase.failures).incrementAndGet();
+    }
+
+    /**
+     * One line per phase with counts and p50/p99, for the console
+     */
+    static String describe() {
+        StringBuilder builder = new StringBuilder("各阶段耗时:\n");
+        for (Phase phase : Phase.values()) {
+            if (phase.histogram.count() == 0) {
+                continue;
+            }
+            builder.append(String.format(Locale.ROOT, "  %s: 成功 %d，失败 %d，p50 ≤ %.0f ms，p99 ≤ %.0f ms%n",
+                    phase.label, phase.successes.get(), phase.failures.get(),
+                    phase.histogram.quantileMillis(0.5), phase.histogram.quantileMillis(0.99)));
+        }
+        builder.append("  错过截止时间: ").append(DEADLINE_MISSES.get()).append(" 次\n");
+        return builder.toString();
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format
+     */
+    static String renderPrometheus(ScheduleCache scheduleCache) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+
+        out.append("# HELP autosign_phase_duration_seconds Duration of each login, schedule and sign-in phase\n");
+        out.append("# TYPE autosign_phase_duration_seconds histogram\n");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = phase.histogram;
+            long cumulative = 0;
+            for (int i = 0; i < LatencyHistogram.BOUNDS_MILLIS.length; i++) {
+                cumulative += histogram.bucketCount(i);
+                out.append("autosign_phase_duration_seconds_bucket{phase=\"").append(phase.label)
+                        .append("\",le=\"").append(formatDouble(LatencyHistogram.BOUNDS_MILLIS[i] / 1000)).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += histogram.bucketCount(LatencyHistogram.BOUNDS_MILLIS.length);
+            out.append("autosign_phase_duration_seconds_bucket{phase=\"").append(phase.label).append("\",le=\"+Inf\"} ")
+                    .append(cumulative).append('\n');
+            out.append("autosign_phase_duration_seconds_sum{phase=\"").append(phase.label).append("\"} ")
+                    .append(formatDouble(histogram.sumSeconds())).append('\n');
+            out.append("autosign_phase_duration_seconds_count{phase=\"").append(phase.label).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+
+        out.append("# HELP autosign_phase_total Completed phases by outcome\n");
+        out.append("# TYPE autosign_phase_total counter\n");
+        for (Phase phase : Phase.values()) {
+            out.append("autosign_phase_total{phase=\"").append(phase.label).append("\",outcome=\"success\"} ")
+                    .append(phase.successes.get()).append('\n');
+            out.append("autosign_phase_total{phase=\"").append(phase.label).append("\",outcome=\"failure\"} ")
+                    .append(phase.failures.get()).append('\n');
+        }
+
+        PoolStats pool = SharedHttpClient.totalStats();
+        gauge(out, "autosign_http_pool_leased", "Connections leased from the shared pool", pool.getLeased());
+        gauge(out, "autosign_http_pool_available", "Idle connections in the shared pool", pool.getAvailable());
+        gauge(out, "autosign_http_pool_pending", "Requests waiting for a pooled connection", pool.getPending());
+        gauge(out, "autosign_signin_in_flight", "Async sign-in requests in flight", AsyncSignInClient.inFlight());
+        counter(out, "autosign_schedule_cache_hits_total", "Schedule cache hits", scheduleCache.hits());
+        counter(out, "autosign_schedule_cache_misses_total", "Schedule cache misses", scheduleCache.misses());
+        counter(out, "autosign_deadline_misses_total", "Sign-ins lost because the course ended before they were sent",
+                DEADLINE_MISSES.get());
+        counter(out, "autosign_warmup_connections_total", "Connections opened ahead of sign-in waves", ConnectionWarmer.connections());
+        counter(out, "autosign_warmup_estimated_reused_connections_total",
+                "Warmed connections a request later ran on; exact for the API pool, inferred from concurrency for sign-ins",
+                ConnectionWarmer.estimatedReusedConnections());
+        out.append("# HELP autosign_warmup_estimated_saved_seconds_total Estimated handshake time of warmed connections that requests ran on\n");
+        out.append("# TYPE autosign_warmup_estimated_saved_seconds_total counter\n");
+        out.append("autosign_warmup_estimated_saved_seconds_total ").append(formatDouble(ConnectionWarmer.estimatedSavedSeconds())).append('\n');
+
+        out.append("# HELP autosign_circuit_breaker_state Breaker state per endpoint: 0 closed, 1 open, 2 half-open\n");
+        out.append("# TYPE autosign_circuit_breaker_state gauge\n");
+        for (CircuitBreaker breaker : CircuitBreaker.all()) {
+            out.append("autosign_circuit_breaker_state{endpoint=\"").append(breaker.name()).append("\"} ")
+                    .append(breaker.state().ordinal()).append('\n');
+        }
+        out.append("# HELP autosign_circuit_breaker_rejected_total Requests failed fast by an open breaker\n");
+        out.append("# TYPE autosign_circuit_breaker_rejected_total counter\n");
+        for (CircuitBreaker breaker : CircuitBreaker.all()) {
+            out.append("autosign_circuit_breaker_rejected_total{endpoint=\"").append(breaker.name()).append("\"} ")
+                    .append(breaker.rejected()).append('\n');
+        }
+        out.append("# HELP autosign_upstream_rate Current permitted request rate per upstream\n");
+        out.append("# TYPE autosign_upstream_rate gauge\n");
+        for (UpstreamLimiter limiter : UpstreamLimiter.all()) {
+            out.append("autosign_upstream_rate{upstream=\"").append(limiter.name()).append("\"} ")
+                    .append(formatDouble(limiter.rate())).append('\n');
+        }
+        out.append("# HELP autosign_upstream_concurrency_limit Current concurrency limit per upstream\n");
+        out.append("# TYPE autosign_upstream_concurrency_limit gauge\n");
+        for (UpstreamLimiter limiter : UpstreamLimiter.all()) {
+            out.append("autosign_upstream_concurrency_limit{upstream=\"").append(limiter.name()).append("\"} ")
+                    .append(limiter.limit()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String formatDouble(double value) {
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,42 @@
+package com.icecream;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP endpoint serving /metrics in Prometheus text format; off unless a port is configured
+ */
+final class MetricsServer {
+    static final int PORT = Config.integer("autosign.metrics.port", 0);
+    static final String HOST = Config.string("autosign.metrics.host", "127.0.0.1");
+
+    private MetricsServer() {
+    }
+
+    static void startIfConfigured(ScheduleCache scheduleCache) {
+        if (PORT <= 0) {
+            return;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(HOST, PORT), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = Metrics.renderPrometheus(scheduleCache).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(TickEngine.namedDaemonThreads("metrics")));
+            server.start();
+            Log.info("metrics", null, "监控指标地址: http://{}:{}/metrics", HOST, PORT);
+        } catch (IOException e) {
+            Log.error("metrics", null, e, "启动监控指标服务失败: {}", e.getMessage());
+        }
+    }
+}
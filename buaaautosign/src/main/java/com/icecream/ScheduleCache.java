@@ -0,0 +1,223 @@
+package com.icecream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Course schedules keyed by (userId, dateStr), persisted to local disk so a restart does not refetch them.
+ * Course metadata is deduplicated by courseSchedId, so classmates share one Course instance, and
+ * identical day schedules share one list and one CourseIndex.
+ */
+final class ScheduleCache {
+    private final Path file;
+    private final Map<String, List<Course>> schedules = new ConcurrentHashMap<>();
+    private final Map<String, Course> courses = new ConcurrentHashMap<>();
+    private final Map<List<Course>, List<Course>> sharedSchedules = new ConcurrentHashMap<>();
+    private final Map<List<Course>, CourseIndex> indexes = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    ScheduleCache(String fileName) {
+        this.file = Paths.get(fileName);
+    }
+
+    private static String key(String userId, String dateStr) {
+        return userId + "|" + dateStr;
+    }
+
+    /**
+     * Cached schedule, or null on a miss
+     */
+    List<Course> get(String userId, String dateStr) {
+        List<Course> schedule = schedules.get(key(userId, dateStr));
+        if (schedule == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return schedule;
+    }
+
+    boolean contains(String userId, String dateStr) {
+        return schedules.containsKey(key(userId, dateStr));
+    }
+
+    /**
+     * Store a freshly fetched schedule and return it with every course replaced by its shared instance
+     */
+    List<Course> put(String userId, String dateStr, List<Course> schedule) {
+        List<Course> shared = new ArrayList<>(schedule.size());
+        for (Course course : schedule) {
+            shared.add(intern(course));
+        }
+        List<Course> stored = share(shared);
+        schedules.put(key(userId, dateStr), stored);
+        dirty.set(true);
+        return stored;
+    }
+
+    /**
+     * The one list instance for this sequence of courses; courses compare by identity, so they must be interned
+     */
+    private List<Course> share(List<Course> schedule) {
+        return sharedSchedules.computeIfAbsent(Collections.unmodifiableList(schedule), list -> list);
+    }
+
+    /**
+     * The index over a schedule returned by get or put, built once for all accounts sharing it;
+     * every caller must pass the same lead time
+     */
+    CourseIndex index(List<Course> schedule, long leadMillis) {
+        return indexes.computeIfAbsent(schedule, list -> CourseIndex.of(list, leadMillis));
+    }
+
+    /**
+     * Return the shared instance for this courseSchedId, replacing it if the metadata changed
+     */
+    Course intern(Course course) {
+        return courses.compute(course.id, (id, existing) -> existing != null && existing.sameAs(course) ? existing : course);
+    }
+
+    /**
+     * Drop one user's schedule for a date, e.g. on an explicit refresh
+     */
+    void invalidate(String userId, String dateStr) {
+        if (schedules.remove(key(userId, dateStr)) != null) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Drop every schedule dated before the given yyyyMMdd date, along with courses no longer referenced
+     */
+    void evictBefore(String dateStr) {
+        boolean evicted = false;
+        Iterator<String> keys = schedules.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.substring(key.lastIndexOf('|') + 1).compareTo(dateStr) < 0) {
+                keys.remove();
+                evicted = true;
+            }
+        }
+        if (!evicted) {
+            // Lists orphaned by a refresh in the meantime are dropped with the next day's eviction
+            return;
+        }
+        dirty.set(true);
+
+        Set<String> referenced = new HashSet<>();
+        Set<List<Course>> referencedSchedules = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<Course> schedule : schedules.values()) {
+            if (referencedSchedules.add(schedule)) {
+                for (Course course : schedule) {
+                    referenced.add(course.id);
+                }
+            }
+        }
+        courses.keySet().retainAll(referenced);
+        sharedSchedules.values().removeIf(schedule -> !referencedSchedules.contains(schedule));
+        indexes.keySet().removeIf(schedule -> !referencedSchedules.contains(schedule));
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    String describe() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        String hitRate = total == 0 ? "-" : String.format("%.1f%%", hitCount * 100.0 / total);
+        return "课程缓存: " + schedules.size() + " 份课表（" + sharedSchedules.size() + " 种不同），" + courses.size() + " 门共享课程，命中 " + hitCount
+                + " 次，未命中 " + misses.get() + " 次，命中率 " + hitRate;
+    }
+
+    /**
+     * Load the cache file if it exists; entries before the given date are skipped
+     */
+    void load(String todayDateStr) {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try {
+            JSONObject data = new JSONObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            JSONObject courseData = data.getJSONObject("courses");
+            for (String id : courseData.keySet()) {
+                courses.put(id, Course.fromJson(courseData.getJSONObject(id)));
+            }
+            JSONObject scheduleData = data.getJSONObject("schedules");
+            for (String key : scheduleData.keySet()) {
+                JSONArray ids = scheduleData.getJSONArray(key);
+                List<Course> schedule = new ArrayList<>(ids.length());
+                for (int i = 0; i < ids.length(); i++) {
+                    Course course = courses.get(ids.getString(i));
+                    if (course != null) {
+                        schedule.add(course);
+                    }
+                }
+                schedules.put(key, share(schedule));
+            }
+            evictBefore(todayDateStr);
+            Log.info("cache", null, "已从缓存加载 {} 份课表", schedules.size());
+        } catch (Exception e) {
+            Log.warn("cache", null, "读取课程缓存失败，将重新获取课表: {}", e.getMessage());
+            schedules.clear();
+            courses.clear();
+        }
+    }
+
+    /**
+     * Write the cache to disk if anything changed since the last save
+     */
+    void saveIfDirty() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        try {
+            JSONObject courseData = new JSONObject();
+            JSONObject scheduleData = new JSONObject();
+            for (Map.Entry<String, List<Course>> entry : schedules.entrySet()) {
+                JSONArray ids = new JSONArray();
+                for (Course course : entry.getValue()) {
+                    ids.put(course.id);
+                    courseData.put(course.id, course.toJson());
+                }
+                scheduleData.put(entry.getKey(), ids);
+            }
+            JSONObject data = new JSONObject();
+            data.put("courses", courseData);
+            data.put("schedules", scheduleData);
+
+            // Write to a temporary file first so a crash never leaves a half-written cache
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, data.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty.set(true);
+            Log.error("cache", null, e, "保存课程缓存时出错: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Pulls the next few days of schedules for every account during a quiet window,
+ * so the first tick of a day is served from the cache instead of hitting iClass.
+ * Requests are paced to a fixed rate and a bounded number run at the same time.
+ */
+final class SchedulePrefetcher {
+    static final int DAYS = Config.integer("autosign.prefetch.days", 7);
+    static final LocalTime WINDOW_START = LocalTime.parse(Config.string("autosign.prefetch.windowStart", "02:00"));
+    static final LocalTime WINDOW_END = LocalTime.parse(Config.string("autosign.prefetch.windowEnd", "05:00"));
+    static final double REQUESTS_PER_SECOND = Double.parseDouble(Config.string("autosign.prefetch.rate", "2"));
+    static final int CONCURRENCY = Config.integer("autosign.prefetch.concurrency", 4);
+
+    /**
+     * Fetches one day's schedule for an account, logging in first if needed; null on failure
+     */
+    interface Fetcher {
+        List<Course> fetch(StudentAccount account, String dateStr) throws Exception;
+    }
+
+    private final ScheduleCache cache;
+    private final Supplier<Collection<StudentAccount>> accounts;
+    private final Fetcher fetcher;
+    private final Supplier<String> today;
+    private final ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, CONCURRENCY), TickEngine.namedDaemonThreads("prefetch"));
+    private final Semaphore inFlight = new Semaphore(Math.max(1, CONCURRENCY));
+    private final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / Math.max(0.01, REQUESTS_PER_SECOND));
+    private long nextPermitNanos = System.nanoTime();
+    private volatile LocalDate lastCompletedDate;
+
+    /**
+     * @param today supplies today's date as yyyyMMdd
+     */
+    SchedulePrefetcher(ScheduleCache cache, Supplier<Collection<StudentAccount>> accounts, Fetcher fetcher, Supplier<String> today) {
+        this.cache = cache;
+        this.accounts = accounts;
+        this.fetcher = fetcher;
+        this.today = today;
+    }
+
+    /**
+     * Check every few minutes whether we are inside the quiet window and today's pass is still due
+     */
+    void start() {
+        ScheduledExecutorService trigger = Executors.newSingleThreadScheduledExecutor(TickEngine.namedDaemonThreads("prefetch-trigger"));
+        trigger.scheduleWithFixedDelay(() -> {
+            LocalTime now = LocalTime.now(AppClock.get());
+            if (inWindow(now) && !AppClock.today().equals(lastCompletedDate)) {
+                runPass(today.get(), true);
+            }
+        }, 1, 5, TimeUnit.MINUTES);
+    }
+
+    static boolean inWindow(LocalTime time) {
+        if (WINDOW_START.isBefore(WINDOW_END)) {
+            return !time.isBefore(WINDOW_START) && time.isBefore(WINDOW_END);
+        }
+        // Window wraps past midnight, e.g. 23:00-05:00
+        return !time.isBefore(WINDOW_START) || time.isBefore(WINDOW_END);
+    }
+
+    /**
+     * Run a pass now on a background thread, e.g. from the console
+     */
+    void runPassAsync() {
+        Thread thread = new Thread(() -> runPass(today.get(), false), "prefetch-manual");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Fetch every missing (account, day) pair from the given yyyyMMdd date onwards. A windowed pass stops
+     * when the quiet window closes, so it never competes with the morning's sign-ins; what it did not get
+     * to is still missing from the cache and fetched by the next night's pass.
+     */
+    synchronized void runPass(String fromDateStr, boolean windowed) {
+        if (fromDateStr == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        AtomicInteger fetched = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        int skipped = 0;
+        boolean windowClosed = false;
+
+        try {
+            List<String> dates = new ArrayList<>(DAYS);
+            LocalDate first = LocalDate.parse(fromDateStr, DateTimeFormatter.BASIC_ISO_DATE);
+            for (int i = 0; i < DAYS; i++) {
+                dates.add(first.plusDays(i).format(DateTimeFormatter.BASIC_ISO_DATE));
+            }
+
+            accounts:
+            for (StudentAccount account : accounts.get()) {
+                for (String dateStr : dates) {
+                    if (windowed && !inWindow(LocalTime.now(AppClock.get()))) {
+                        windowClosed = true;
+                        break accounts;
+                    }
+                    String userId = account.userId();
+                    if (!userId.isEmpty() && cache.contains(userId, dateStr)) {
+                        continue;
+                    }
+                    awaitPermit();
+                    inFlight.acquire();
+                    if (!account.busy.compareAndSet(false, true)) {
+                        // A tick is working on this account; it will load its own schedule
+                        inFlight.release();
+                        skipped++;
+                        continue;
+                    }
+                    workers.execute(() -> {
+                        try {
+                            List<Course> schedule = fetcher.fetch(account, dateStr);
+                            if (schedule == null) {
+                                failed.incrementAndGet();
+                            } else {
+                                cache.put(account.userId(), dateStr, schedule);
+                                fetched.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                        } finally {
+                            account.busy.set(false);
+                            inFlight.release();
+                        }
+                    });
+                }
+            }
+
+            // Wait for the tail of the pipeline
+            inFlight.acquire(Math.max(1, CONCURRENCY));
+            inFlight.release(Math.max(1, CONCURRENCY));
+            cache.saveIfDirty();
+            if (windowClosed) {
+                Log.warn("prefetch", null, "预取时段已结束，停止预取，剩余课表下次预取时继续：已获取 {} 份，失败 {} 份，跳过 {} 份，耗时 {} ms",
+                        fetched.get(), failed.get(), skipped, System.currentTimeMillis() - start);
+                return;
+            }
+            lastCompletedDate = AppClock.today();
+            Log.info("prefetch", null, "课表预取完成：获取 {} 份，失败 {} 份，跳过 {} 份，耗时 {} ms",
+                    fetched.get(), failed.get(), skipped, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Block until the next request slot, spacing requests evenly at the configured rate
+     */
+    private void awaitPermit() throws InterruptedException {
+        long now = System.nanoTime();
+        long wait = nextPermitNanos - now;
+        nextPermitNanos = Math.max(now, nextPermitNanos) + intervalNanos;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a whole semester through the real wakeup scheduler, login, schedule and sign-in code on a
+ * virtual clock, against an in-process {@link FakeIclassServer}. The clock jumps straight to the next
+ * wakeup or retry once all sign-ins of the previous one have been answered, so a semester runs as fast
+ * as the CPU allows. Reports the sign-in success rate, requests per account per day and CPU time per
+ * simulated day, so scheduling changes can be compared offline.
+ *
+ * <pre>
+ * java -cp buaaautosign/target/iclass-attendance-1.0-SNAPSHOT-jar-with-dependencies.jar com.icecream.SemesterSimulation --accounts 1000 --from 20250224 --weeks 18
+ * </pre>
+ *
+ * Schedules are a synthetic weekly timetable, or with --recorded a course_cache.json whose schedules
+ * are replayed by weekday across the semester. The nightly schedule prefetch runs on the wall clock
+ * and is not part of the simulation.
+ */
+public class SemesterSimulation {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** Class periods of the synthetic timetable; each class lasts 95 minutes */
+    private static final LocalTime[] PERIODS = {
+            LocalTime.of(8, 0), LocalTime.of(9, 50), LocalTime.of(14, 0), LocalTime.of(15, 50), LocalTime.of(19, 0)};
+    private static final long CLASS_MINUTES = 95;
+
+    /** How long to wait for outstanding sign-ins before moving the clock on regardless */
+    private static final long SETTLE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * What one simulated day cost and achieved
+     */
+    private static final class Day {
+        final LocalDate date;
+        long courses;
+        long signed;
+        long requests;
+        long cpuNanos;
+        long stubCpuNanos;
+
+        Day(LocalDate date) {
+            this.date = date;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadTestDriver.parseOptions(args);
+        int accounts = Integer.parseInt(options.getOrDefault("accounts", "500"));
+        LocalDate from = LocalDate.parse(options.getOrDefault("from", "20250224"), DATE_FORMAT);
+        int weeks = Integer.parseInt(options.getOrDefault("weeks", "18"));
+        int coursesPerDay = Integer.parseInt(options.getOrDefault("courses", "3"));
+        int sections = Integer.parseInt(options.getOrDefault("sections", "200"));
+        double errorRate = Double.parseDouble(options.getOrDefault("errorRate", "0"));
+        long latencyMillis = Long.parseLong(options.getOrDefault("latencyMillis", "0"));
+        String recorded = options.get("recorded");
+
+        FakeIclassServer server = new FakeIclassServer(latencyMillis, 0, errorRate, coursesPerDay, sections,
+                Integer.parseInt(options.getOrDefault("serverThreads", "64")));
+        server.setScheduleSource(recorded == null ? timetable(coursesPerDay) : recorded(recorded));
+        server.start();
+
+        // Must happen before the first use of Config, Endpoints or any client
+        System.setProperty("autosign.sso.baseUrl", server.ssoBaseUrl());
+        System.setProperty("autosign.iclass.apiBaseUrl", server.apiBaseUrl());
+        System.setProperty("autosign.iclass.signBaseUrl", server.signBaseUrl());
+        LoadTestDriver.defaultProperty("autosign.log.level", "OFF");
+        LoadTestDriver.defaultProperty("autosign.tick.threads", "64");
+        for (String upstream : new String[]{"sso", "iclass-api", "iclass-sign"}) {
+            LoadTestDriver.defaultProperty("autosign.limit." + upstream + ".rate", "1000000");
+            LoadTestDriver.defaultProperty("autosign.limit." + upstream + ".maxRate", "1000000");
+            LoadTestDriver.defaultProperty("autosign.limit." + upstream + ".concurrency", "1024");
+            LoadTestDriver.defaultProperty("autosign.limit." + upstream + ".maxConcurrency", "1024");
+        }
+
+        ZoneId zone = ZoneId.systemDefault();
+        AppClock.Virtual clock = new AppClock.Virtual(from.atStartOfDay(zone).toInstant().toEpochMilli(), zone);
+        AppClock.use(clock);
+
+        PrintStream report = System.out;
+        report.println(String.format(Locale.ROOT, "学期模拟: %s 起 %d 周，账户 %d，课表 %s，延迟 %d ms，错误率 %.3f",
+                from.format(DATE_FORMAT), weeks, accounts,
+                recorded == null ? "每周固定，每个上课日 " + coursesPerDay + " 门" : "回放 " + recorded, latencyMillis, errorRate));
+
+        List<StudentAccount> studentAccounts = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            StudentAccount account = new StudentAccount(String.valueOf(30_000_000 + i), "password");
+            studentAccounts.add(account);
+            AttendanceSystem.studentAccounts.put(account.studentNumber, account);
+        }
+
+        TickEngine tickEngine = TickEngine.fromConfig();
+        WakeupScheduler scheduler = AttendanceSystem.newWakeupScheduler(tickEngine);
+
+        List<Day> days = new ArrayList<>();
+        int stalls = 0;
+        long wallStart = System.nanoTime();
+        for (LocalDate date = from; date.isBefore(from.plusWeeks(weeks)); date = date.plusDays(1)) {
+            Day day = new Day(date);
+            long dayEnd = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            long requestsBefore = server.totalRequests();
+            long cpuBefore = processCpuNanos();
+            long stubCpuBefore = stubCpuNanos();
+
+            while (true) {
+                if (!settle(studentAccounts)) {
+                    stalls++;
+                }
+                long next = Math.min(scheduler.nextWakeMillis(), clock.nextTimerMillis());
+                if (next >= dayEnd) {
+                    break;
+                }
+                clock.advanceTo(next);
+                scheduler.runDue(clock.millis());
+            }
+
+            day.requests = server.totalRequests() - requestsBefore;
+            day.stubCpuNanos = stubCpuNanos() - stubCpuBefore;
+            day.cpuNanos = processCpuNanos() - cpuBefore - day.stubCpuNanos;
+            for (StudentAccount account : studentAccounts) {
+                String userId = account.userId();
+                if (!userId.isEmpty()) {
+                    day.courses += server.courseCount(userId, date);
+                }
+                day.signed += account.signedCount();
+            }
+            days.add(day);
+
+            clock.advanceTo(dayEnd);
+            AttendanceSystem.dropPastDays();
+        }
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - wallStart);
+
+        report.println();
+        report.println(String.format(Locale.ROOT, "%-10s %8s %8s %8s %14s %14s %14s",
+                "周", "课程", "已打卡", "成功率", "请求/账户/天", "CPU ms/天", "模拟服务 ms/天"));
+        for (int week = 0; week < days.size(); week += 7) {
+            List<Day> span = days.subList(week, Math.min(days.size(), week + 7));
+            report.println(row(span.get(0).date.format(DATE_FORMAT), span, accounts));
+        }
+        report.println(row("合计", days, accounts));
+
+        long maxCpu = 0;
+        LocalDate busiest = from;
+        for (Day day : days) {
+            if (day.cpuNanos > maxCpu) {
+                maxCpu = day.cpuNanos;
+                busiest = day.date;
+            }
+        }
+        int loggedIn = 0;
+        for (StudentAccount account : studentAccounts) {
+            if (account.isLoggedIn) {
+                loggedIn++;
+            }
+        }
+        report.println();
+        report.println(String.format(Locale.ROOT, "模拟 %d 天用时 %.1f 秒（%.1f 天/秒），CPU 最多的一天 %s 用 %d ms，错过截止时间 %d 次，登录中账户 %d/%d",
+                days.size(), wallMillis / 1000.0, days.size() * 1000.0 / Math.max(1, wallMillis),
+                busiest.format(DATE_FORMAT), TimeUnit.NANOSECONDS.toMillis(maxCpu), Metrics.deadlineMisses(), loggedIn, accounts));
+        if (stalls > 0) {
+            report.println("警告: " + stalls + " 次等待签到回调超时，期间的时钟推进可能早于真实顺序");
+        }
+        report.println(server.describe());
+        for (UpstreamLimiter limiter : UpstreamLimiter.all()) {
+            report.println(limiter.describe());
+        }
+        report.println("CPU 为整个进程（含 GC 与 JIT）减去模拟服务线程的 CPU 时间");
+
+        tickEngine.shutdown();
+        server.stop();
+        System.exit(0);
+    }
+
+    private static String row(String label, List<Day> span, int accounts) {
+        long courses = 0;
+        long signed = 0;
+        long requests = 0;
+        long cpuNanos = 0;
+        long stubCpuNanos = 0;
+        for (Day day : span) {
+            courses += day.courses;
+            signed += day.signed;
+            requests += day.requests;
+            cpuNanos += day.cpuNanos;
+            stubCpuNanos += day.stubCpuNanos;
+        }
+        int count = Math.max(1, span.size());
+        return String.format(Locale.ROOT, "%-10s %8d %8d %7.2f%% %14.2f %14.1f %14.1f", label, courses, signed,
+                courses == 0 ? 100.0 : signed * 100.0 / courses, requests / (double) count / Math.max(1, accounts),
+                cpuNanos / 1e6 / count, stubCpuNanos / 1e6 / count);
+    }
+
+    /**
+     * Wait until every sign-in sent so far has been answered and every claimed course is either done or
+     * waiting for a retry on the virtual clock; false if that did not happen within the timeout
+     */
+    private static boolean settle(Collection<StudentAccount> accounts) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (true) {
+            if (AsyncSignInClient.inFlight() == 0 && signing(accounts) <= SignInRetryPolicy.pending()) {
+                return true;
+            }
+            if (System.currentTimeMillis() - start >= SETTLE_TIMEOUT_MILLIS) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static int signing(Collection<StudentAccount> accounts) {
+        int count = 0;
+        for (StudentAccount account : accounts) {
+            count += account.signingCount();
+        }
+        return count;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    /**
+     * CPU time of the stand-in's handler and dispatcher threads, which would run elsewhere in production
+     */
+    private static long stubCpuNanos() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && (info.getThreadName().startsWith("fake-iclass") || info.getThreadName().startsWith("HTTP-Dispatcher"))) {
+                total += Math.max(0, threads.getThreadCpuTime(info.getThreadId()));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * A fixed weekly timetable: each section has its own pick of periods on each weekday, nothing at weekends
+     */
+    private static FakeIclassServer.ScheduleSource timetable(int coursesPerDay) {
+        return (date, section) -> {
+            DayOfWeek weekday = date.getDayOfWeek();
+            if (weekday == DayOfWeek.SATURDAY || weekday == DayOfWeek.SUNDAY) {
+                return Collections.emptyList();
+            }
+            List<Integer> periods = new ArrayList<>();
+            for (int i = 0; i < PERIODS.length; i++) {
+                periods.add(i);
+            }
+            Collections.shuffle(periods, new Random(section * 7L + weekday.getValue()));
+            periods = new ArrayList<>(periods.subList(0, Math.min(coursesPerDay, PERIODS.length)));
+            Collections.sort(periods);
+
+            List<Course> courses = new ArrayList<>(periods.size());
+            for (int period : periods) {
+                LocalDateTime begin = date.atTime(PERIODS[period]);
+                courses.add(new Course(date.format(DATE_FORMAT) + period + "-" + section, "模拟课程" + (period + 1),
+                        begin.format(TIME_FORMAT), begin.plusMinutes(CLASS_MINUTES).format(TIME_FORMAT)));
+            }
+            return courses;
+        };
+    }
+
+    /**
+     * Schedules from a course_cache.json. Each section replays one recorded user; a date that was not
+     * recorded gets that user's schedule of the latest recorded day on the same weekday, moved to the date.
+     */
+    private static FakeIclassServer.ScheduleSource recorded(String file) throws Exception {
+        JSONObject data = new JSONObject(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+        JSONObject courseData = data.getJSONObject("courses");
+        JSONObject scheduleData = data.getJSONObject("schedules");
+        Map<String, Map<LocalDate, List<Course>>> byUser = new TreeMap<>();
+        for (String key : scheduleData.keySet()) {
+            int separator = key.lastIndexOf('|');
+            LocalDate date = LocalDate.parse(key.substring(separator + 1), DATE_FORMAT);
+            JSONArray ids = scheduleData.getJSONArray(key);
+            List<Course> schedule = new ArrayList<>(ids.length());
+            for (int i = 0; i < ids.length(); i++) {
+                JSONObject course = courseData.optJSONObject(ids.getString(i));
+                if (course != null) {
+                    schedule.add(Course.fromJson(course));
+                }
+            }
+            byUser.computeIfAbsent(key.substring(0, separator), user -> new TreeMap<>()).put(date, schedule);
+        }
+        if (byUser.isEmpty()) {
+            throw new IllegalArgumentException("课程缓存中没有课表: " + file);
+        }
+
+        List<Map<LocalDate, List<Course>>> users = new ArrayList<>(byUser.values());
+        List<Map<DayOfWeek, LocalDate>> weeklyDays = new ArrayList<>();
+        for (Map<LocalDate, List<Course>> days : users) {
+            Map<DayOfWeek, LocalDate> latest = new EnumMap<>(DayOfWeek.class);
+            for (LocalDate date : days.keySet()) {
+                latest.put(date.getDayOfWeek(), date);
+            }
+            weeklyDays.add(latest);
+        }
+        Map<String, List<Course>> moved = new HashMap<>();
+        return (date, section) -> {
+            int user = section % users.size();
+            List<Course> exact = users.get(user).get(date);
+            if (exact != null) {
+                return exact;
+            }
+            LocalDate source = weeklyDays.get(user).get(date.getDayOfWeek());
+            if (source == null) {
+                return Collections.emptyList();
+            }
+            synchronized (moved) {
+                return moved.computeIfAbsent(user + "|" + date, key -> moveTo(users.get(user).get(source), source, date));
+            }
+        };
+    }
+
+    private static List<Course> moveTo(List<Course> schedule, LocalDate source, LocalDate date) {
+        long days = ChronoUnit.DAYS.between(source, date);
+        List<Course> courses = new ArrayList<>(schedule.size());
+        for (Course course : schedule) {
+            courses.add(new Course(course.id + "-" + date.format(DATE_FORMAT), course.courseName,
+                    LocalDateTime.parse(course.classBeginTime, TIME_FORMAT).plusDays(days).format(TIME_FORMAT),
+                    LocalDateTime.parse(course.classEndTime, TIME_FORMAT).plusDays(days).format(TIME_FORMAT)));
+        }
+        return courses;
+    }
+}
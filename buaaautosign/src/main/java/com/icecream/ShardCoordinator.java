@@ -0,0 +1,311 @@
+package com.icecream;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits accounts across several daemon instances. Student numbers map to a fixed number of slots
+ * through a consistent-hash ring, and instances own slots through lease files in a shared directory:
+ * each instance renews its leases and heartbeat periodically, takes over slots whose lease expired,
+ * and hands slots back when more instances join so every live instance holds about the same share.
+ */
+final class ShardCoordinator {
+    static final int COUNT = Config.integer("autosign.shard.count", 1);
+    static final String INSTANCE = Config.string("autosign.shard.instance", "");
+    static final String LEASE_DIR = Config.string("autosign.shard.leaseDir", "shard-leases");
+    static final long LEASE_MILLIS = Config.longValue("autosign.shard.leaseMillis", 30_000L);
+
+    private static final int VIRTUAL_NODES = 128;
+
+    /**
+     * Reacts to slots this instance gained or lost in one renewal pass
+     */
+    interface Listener {
+        void ownershipChanged(BitSet gained, BitSet lost);
+    }
+
+    private final int slots;
+    private final String instance;
+    private final Path leaseDir;
+    private final long leaseMillis;
+    private final long[] ringHashes;
+    private final int[] ringSlots;
+    private volatile BitSet owned = new BitSet();
+    private volatile int liveInstances = 1;
+    private Listener listener;
+
+    ShardCoordinator(int slots, String instance, Path leaseDir, long leaseMillis) {
+        this.slots = Math.max(1, slots);
+        this.instance = instance;
+        this.leaseDir = leaseDir;
+        this.leaseMillis = leaseMillis;
+
+        // Sorted ring of virtual nodes, so changing the slot count only moves about 1/N of the accounts
+        long[] hashes = new long[this.slots * VIRTUAL_NODES];
+        for (int slot = 0; slot < this.slots; slot++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                hashes[slot * VIRTUAL_NODES + node] = Hashing.hash64("slot-" + slot + "#" + node);
+            }
+        }
+        Integer[] order = new Integer[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        ringHashes = new long[hashes.length];
+        ringSlots = new int[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            ringHashes[i] = hashes[order[i]];
+            ringSlots[i] = order[i] / VIRTUAL_NODES;
+        }
+    }
+
+    /**
+     * Why the shard settings can't be used, or null if they can. A sharded instance names its lease,
+     * schedule cache and sign-in log files after its id, so the id has to be set and must not change
+     * between restarts; a generated one would leave a new set of files behind on every start.
+     */
+    static String configProblem() {
+        if (COUNT > 1 && INSTANCE.isEmpty()) {
+            return "已启用分片（autosign.shard.count=" + COUNT + "），请用 -Dautosign.shard.instance 为每个实例设置固定且互不相同的标识";
+        }
+        return null;
+    }
+
+    static ShardCoordinator fromConfig() {
+        return new ShardCoordinator(COUNT, INSTANCE, Paths.get(LEASE_DIR), LEASE_MILLIS);
+    }
+
+    boolean enabled() {
+        return slots > 1;
+    }
+
+    String instance() {
+        return instance;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The slot a student number belongs to: the first virtual node at or after its hash on the ring
+     */
+    int slotOf(String studentNumber) {
+        long h = Hashing.hash64(studentNumber);
+        int index = Arrays.binarySearch(ringHashes, h);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return ringSlots[index == ringHashes.length ? 0 : index];
+    }
+
+    /**
+     * Whether this instance currently handles the account; always true when sharding is off
+     */
+    boolean owns(String studentNumber) {
+        return !enabled() || owned.get(slotOf(studentNumber));
+    }
+
+    /**
+     * Claim the initial share synchronously, then renew in the background
+     */
+    void start() throws IOException {
+        if (!enabled()) {
+            return;
+        }
+        Files.createDirectories(leaseDir);
+        renew();
+        ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(TickEngine.namedDaemonThreads("shard-lease"));
+        long period = Math.max(1000, leaseMillis / 3);
+        renewer.scheduleWithFixedDelay(() -> {
+            try {
+                renew();
+            } catch (Exception e) {
+                Log.error("shard", null, e, "续租分片时发生错误: {}", e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::releaseAll));
+    }
+
+    /**
+     * One pass over every slot: renew ours, release extras above the fair share, take free or expired ones
+     */
+    synchronized void renew() throws IOException {
+        long now = System.currentTimeMillis();
+        writeLease(heartbeatFile(), now);
+        int live = countLiveInstances(now);
+        int fairShare = (slots + live - 1) / live;
+
+        BitSet before = owned;
+        BitSet after = new BitSet(slots);
+        int held = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (before.get(slot) && held < fairShare && claimSlot(slot, now)) {
+                after.set(slot);
+                held++;
+            } else if (before.get(slot)) {
+                releaseSlot(slot);
+            }
+        }
+        // Spread the starting point so instances joining together don't all race for slot 0
+        int offset = Math.floorMod(instance.hashCode(), slots);
+        for (int i = 0; i < slots && held < fairShare; i++) {
+            int slot = (offset + i) % slots;
+            if (!after.get(slot) && claimSlot(slot, now)) {
+                after.set(slot);
+                held++;
+            }
+        }
+        owned = after;
+        liveInstances = live;
+
+        BitSet gained = (BitSet) after.clone();
+        gained.andNot(before);
+        BitSet lost = (BitSet) before.clone();
+        lost.andNot(after);
+        if (!gained.isEmpty() || !lost.isEmpty()) {
+            Log.info("shard", null, "实例 {} 负责分片 {}（存活实例 {}，新增 {}，移交 {}）", instance, after, live, gained, lost);
+            if (listener != null) {
+                listener.ownershipChanged(gained, lost);
+            }
+        }
+    }
+
+    /**
+     * Renew or take a slot unless another instance holds an unexpired lease on it
+     */
+    private boolean claimSlot(int slot, long now) throws IOException {
+        return withSlotLock(slot, () -> {
+            Lease lease = readLease(leaseFile(slot));
+            if (lease != null && !lease.owner.equals(instance) && lease.expiresAt > now) {
+                return false;
+            }
+            writeLease(leaseFile(slot), now);
+            return true;
+        });
+    }
+
+    private void releaseSlot(int slot) throws IOException {
+        withSlotLock(slot, () -> {
+            Lease lease = readLease(leaseFile(slot));
+            if (lease != null && lease.owner.equals(instance)) {
+                Files.deleteIfExists(leaseFile(slot));
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Give up every slot on a clean shutdown so the others take over without waiting for expiry
+     */
+    private synchronized void releaseAll() {
+        try {
+            for (int slot = owned.nextSetBit(0); slot >= 0; slot = owned.nextSetBit(slot + 1)) {
+                releaseSlot(slot);
+            }
+            Files.deleteIfExists(heartbeatFile());
+        } catch (IOException e) {
+            Log.warn("shard", null, "释放分片租约时出错: {}", e.getMessage());
+        }
+        owned = new BitSet();
+    }
+
+    private int countLiveInstances(long now) throws IOException {
+        int live = 0;
+        try (DirectoryStream<Path> heartbeats = Files.newDirectoryStream(leaseDir, "instance-*.heartbeat")) {
+            for (Path heartbeat : heartbeats) {
+                Lease lease = readLease(heartbeat);
+                if (lease != null && lease.expiresAt > now) {
+                    live++;
+                }
+            }
+        }
+        return Math.max(1, live);
+    }
+
+    private interface SlotAction {
+        boolean run() throws IOException;
+    }
+
+    /**
+     * Serialize read-modify-write of one slot's lease across processes with an OS file lock
+     */
+    private boolean withSlotLock(int slot, SlotAction action) throws IOException {
+        try (FileChannel channel = FileChannel.open(leaseDir.resolve("slot-" + slot + ".lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                return action.run();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Owner and expiry of a lease or heartbeat file
+     */
+    private static final class Lease {
+        final String owner;
+        final long expiresAt;
+
+        Lease(String owner, long expiresAt) {
+            this.owner = owner;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static Lease readLease(Path file) throws IOException {
+        String content;
+        try {
+            content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        int space = content.lastIndexOf(' ');
+        if (space < 0) {
+            return null;
+        }
+        try {
+            return new Lease(content.substring(0, space), Long.parseLong(content.substring(space + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void writeLease(Path file, long now) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + "." + instance + ".tmp");
+        Files.write(tmp, (instance + " " + (now + leaseMillis)).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path leaseFile(int slot) {
+        return leaseDir.resolve("slot-" + slot + ".lease");
+    }
+
+    private Path heartbeatFile() {
+        return leaseDir.resolve("instance-" + instance + ".heartbeat");
+    }
+
+    String describe() {
+        if (!enabled()) {
+            return "分片: 未启用";
+        }
+        return "分片: 实例 " + instance + " 负责 " + owned + " / 共 " + slots + " 片，存活实例 " + liveInstances;
+    }
+}
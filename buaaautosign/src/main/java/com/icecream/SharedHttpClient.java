@@ -0,0 +1,246 @@
+package com.icecream;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One long-lived pooled HTTP client shared by every account.
+ * Per-account state (cookies) lives in each account's HttpClientContext, never in the client itself.
+ */
+final class SharedHttpClient {
+    static final int MAX_TOTAL = Config.integer("autosign.http.maxTotal", 200);
+    static final int MAX_PER_ROUTE = Config.integer("autosign.http.maxPerRoute", 50);
+    static final int CONNECT_TIMEOUT_MILLIS = Config.integer("autosign.http.connectTimeoutMillis", 10_000);
+    static final int SOCKET_TIMEOUT_MILLIS = Config.integer("autosign.http.socketTimeoutMillis", 15_000);
+
+    /**
+     * Context attribute with the epoch millis by which the request's work must be done, see {@link #execute}
+     */
+    static final String DEADLINE = "autosign.deadline";
+
+    private static final PoolingHttpClientConnectionManager CONNECTION_MANAGER = createConnectionManager();
+
+    /**
+     * Connections opened by {@link #warm} that no request has run on yet, by connection id
+     */
+    private static final Map<String, Warmed> WARMED = new ConcurrentHashMap<>();
+
+    /**
+     * Request config for calls whose redirect chain we follow by hand
+     */
+    static final RequestConfig NO_REDIRECTS = RequestConfig.custom()
+            .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+            .setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+            .setConnectionRequestTimeout(CONNECT_TIMEOUT_MILLIS)
+            .setRedirectsEnabled(false)
+            .build();
+
+    private static final CloseableHttpClient CLIENT = HttpClients.custom()
+            .setConnectionManager(CONNECTION_MANAGER)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                    .setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+                    .setConnectionRequestTimeout(CONNECT_TIMEOUT_MILLIS)
+                    .build())
+            .evictIdleConnections(60, TimeUnit.SECONDS)
+            .evictExpiredConnections()
+            .setRequestExecutor(new HttpRequestExecutor() {
+                @Override
+                public HttpResponse execute(HttpRequest request, HttpClientConnection connection, HttpContext context)
+                        throws IOException, HttpException {
+                    countWarmReuse(connection);
+                    return super.execute(request, connection, context);
+                }
+            })
+            .build();
+
+    private SharedHttpClient() {
+    }
+
+    private static PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager manager = new PoolingHttpClientConnectionManager(5, TimeUnit.MINUTES);
+        manager.setMaxTotal(MAX_TOTAL);
+        manager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+        manager.setValidateAfterInactivity(2_000);
+        return manager;
+    }
+
+    static CloseableHttpClient get() {
+        return CLIENT;
+    }
+
+    /**
+     * Runs as each request goes out on its connection; the first request on a warmed connection
+     * credits the warm-up with that connection's handshake time
+     */
+    private static void countWarmReuse(HttpClientConnection connection) {
+        if (WARMED.isEmpty()) {
+            return;
+        }
+        if (connection instanceof ManagedHttpClientConnection) {
+            Warmed warmed = WARMED.remove(((ManagedHttpClientConnection) connection).getId());
+            if (warmed != null) {
+                ConnectionWarmer.reused(1, warmed.handshakeNanos);
+            }
+        }
+    }
+
+    /**
+     * Execute through the upstream host's limiter: waits for a rate token and concurrency slot,
+     * then reports the outcome and time to response headers so the limiter can adapt.
+     * A {@link #DEADLINE} attribute in the context moves the request ahead of later deadlines.
+     * Fails at once with {@link CircuitBreaker.OpenException} while the endpoint's breaker is open.
+     */
+    static CloseableHttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+        CircuitBreaker breaker = CircuitBreaker.forUri(request.getURI());
+        if (breaker != null && !breaker.allow()) {
+            throw new CircuitBreaker.OpenException(breaker);
+        }
+        UpstreamLimiter limiter = UpstreamLimiter.forUri(request.getURI());
+        Object deadline = context == null ? null : context.getAttribute(DEADLINE);
+        try {
+            limiter.acquire(deadline instanceof Long ? (Long) deadline : Long.MAX_VALUE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待限流许可时被中断");
+        }
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            CloseableHttpResponse response = CLIENT.execute(request, context);
+            int statusCode = response.getStatusLine().getStatusCode();
+            success = statusCode < 500 && statusCode != 429;
+            return response;
+        } finally {
+            limiter.release(success, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (breaker != null) {
+                breaker.record(success);
+            }
+        }
+    }
+
+    /**
+     * Make sure count connections to the host of uri sit idle in the pool, opening the missing ones
+     * without sending a request. They are opened one after another so that, after the first full
+     * TLS handshake, the rest resume the session cached in the shared TLS context.
+     * The connect time spent here is time a burst right afterwards no longer waits for, and is counted
+     * as saved once a request runs on the connection.
+     */
+    static ConnectionWarmer.Result warm(URI uri, int count, long keepAliveMillis) {
+        HttpHost target = URIUtils.extractHost(uri);
+        HttpRoute route = new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName()));
+        HttpClientContext context = HttpClientContext.create();
+        List<HttpClientConnection> leased = new ArrayList<>();
+        int opened = 0;
+        long connectNanos = 0;
+        long expiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        // Connections the pool has dropped since an earlier warm-up can no longer be reused
+        WARMED.values().removeIf(warmed -> warmed.expiresNanos - System.nanoTime() < 0);
+        try {
+            for (int i = 0; i < Math.min(count, MAX_PER_ROUTE); i++) {
+                HttpClientConnection connection;
+                try {
+                    connection = CONNECTION_MANAGER.requestConnection(route, null).get(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (ConnectionPoolTimeoutException e) {
+                    // The pool is busy serving requests already
+                    break;
+                }
+                leased.add(connection);
+                String id = ((ManagedHttpClientConnection) connection).getId();
+                if (connection.isOpen()) {
+                    WARMED.computeIfPresent(id, (key, warmed) -> new Warmed(warmed.handshakeNanos, expiresNanos));
+                    continue;
+                }
+                long start = System.nanoTime();
+                CONNECTION_MANAGER.connect(connection, route, CONNECT_TIMEOUT_MILLIS, context);
+                CONNECTION_MANAGER.routeComplete(connection, route, context);
+                long handshakeNanos = System.nanoTime() - start;
+                WARMED.put(id, new Warmed(handshakeNanos, expiresNanos));
+                connectNanos += handshakeNanos;
+                opened++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | ExecutionException e) {
+            Log.warn("warmup", null, "预热到 {} 的连接失败: {}", target.toHostString(), e.getMessage());
+        } finally {
+            for (HttpClientConnection connection : leased) {
+                CONNECTION_MANAGER.releaseConnection(connection, null, keepAliveMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return new ConnectionWarmer.Result(opened, connectNanos);
+    }
+
+    private static final class Warmed {
+        final long handshakeNanos;
+        final long expiresNanos;
+
+        Warmed(long handshakeNanos, long expiresNanos) {
+            this.handshakeNanos = handshakeNanos;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    /**
+     * Leased, available and pending connection counts across all routes
+     */
+    static PoolStats totalStats() {
+        return CONNECTION_MANAGER.getTotalStats();
+    }
+
+    static String describeStats() {
+        PoolStats stats = totalStats();
+        return "连接池: 使用中 " + stats.getLeased() + "，空闲 " + stats.getAvailable()
+                + "，等待 " + stats.getPending() + "，上限 " + stats.getMax()
+                + "（每路由 " + CONNECTION_MANAGER.getDefaultMaxPerRoute() + "）";
+    }
+
+    static String describeRouteStats() {
+        StringBuilder builder = new StringBuilder();
+        for (HttpRoute route : CONNECTION_MANAGER.getRoutes()) {
+            PoolStats stats = CONNECTION_MANAGER.getStats(route);
+            builder.append("  ").append(route.getTargetHost().toHostString())
+                    .append(": 使用中 ").append(stats.getLeased())
+                    .append("，空闲 ").append(stats.getAvailable())
+                    .append("，等待 ").append(stats.getPending())
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    static void close() {
+        try {
+            CLIENT.close();
+        } catch (IOException e) {
+            Log.warn("http", null, "关闭 HTTP 连接池时出错: {}", e.getMessage());
+        }
+    }
+}
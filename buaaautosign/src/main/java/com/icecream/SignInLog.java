@@ -0,0 +1,431 @@
+package com.icecream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Durable record of sign-in outcomes per (account, courseSchedId, day), so a restart does not send
+ * sign-ins that already went through. Records are appended to a memory-mapped file, which costs no
+ * system call per sign-in and survives a crash of the process; the mapping is flushed to disk
+ * periodically and at shutdown. Today's successful sign-ins are also kept as 64-bit keys in memory
+ * for the check before every request; "today" moves on with the day of the courses checked and
+ * recorded, so it does not lag behind until the nightly compaction. Records of past days are dropped
+ * by {@link #compactBefore}.
+ *
+ * <pre>
+ * record: u16 length | i32 day (yyyyMMdd) | u8 outcome | u8 n | student number | u8 n | courseSchedId | i32 crc32
+ * </pre>
+ * A zero length marks the end; a record with a bad checksum is a torn write and ends the log too.
+ * With sharding every instance writes its own log, named after its instance id; an instance that takes
+ * over a slot adopts the sign-ins the other logs hold for it, see {@link #adoptPeers}.
+ */
+final class SignInLog {
+    static final String FILE = Config.string("autosign.signinlog.file", ShardCoordinator.COUNT > 1
+            ? "sign_in_log-" + ShardCoordinator.INSTANCE + ".dat" : "sign_in_log.dat");
+
+    static final byte SIGNED = 1;
+    static final byte FAILED = 2;
+
+    private static final int GROW_BYTES = 1 << 20;
+    private static final int HEADER_BYTES = 2 + 4 + 1;
+    private static final int CRC_BYTES = 4;
+
+    private final Path file;
+    private final String instance;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int position;
+    private int records;
+    private int oldestDay = Integer.MAX_VALUE;
+    private int signedToday;
+    private int today;
+    private boolean dirty;
+    private final LongSet signed = new LongSet();
+
+    /**
+     * @param instance the shard instance id in the file name, used to find the other instances' logs;
+     *                 null if there are none
+     */
+    SignInLog(String file, String instance) {
+        this.file = Paths.get(file);
+        this.instance = instance;
+    }
+
+    /**
+     * Receives each valid record of a log
+     */
+    private interface Visitor {
+        void record(int day, byte outcome, String studentNumber, String courseId);
+    }
+
+    /**
+     * Map the log and replay it, keeping the successes of the given day; a torn tail is wiped
+     */
+    synchronized void open(String dateStr) throws IOException {
+        today = Integer.parseInt(dateStr);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(GROW_BYTES, roundUp(size)));
+        replay();
+        if (records > 0) {
+            Log.info("signin_log", null, "已读取 {} 条打卡记录，今日已打卡 {} 次", records, signedToday);
+        }
+    }
+
+    private void replay() {
+        position = scan(map, this::apply);
+        if (position + 2 <= map.capacity() && map.getShort(position) != 0) {
+            Log.warn("signin_log", null, "打卡记录末尾有未写完的记录，已从 {} 字节处截断", position);
+            // The torn record's own length can't be trusted, so wipe everything after it
+            for (int i = position; i < map.capacity(); i++) {
+                map.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Hand every valid record from the start of the log to the visitor and return where they end:
+     * at a zero length, or at a record whose length or checksum is off
+     */
+    private static int scan(ByteBuffer log, Visitor visitor) {
+        CRC32 crc = new CRC32();
+        int at = 0;
+        while (at + HEADER_BYTES + CRC_BYTES <= log.capacity()) {
+            int length = log.getShort(at) & 0xffff;
+            if (length < HEADER_BYTES + 2 + CRC_BYTES || at + length > log.capacity() || !checksumMatches(log, crc, at, length)) {
+                break;
+            }
+            int day = log.getInt(at + 2);
+            byte outcome = log.get(at + 6);
+            int studentLength = log.get(at + 7) & 0xff;
+            String studentNumber = text(log, at + 8, studentLength);
+            String courseId = text(log, at + 9 + studentLength, log.get(at + 8 + studentLength) & 0xff);
+            visitor.record(day, outcome, studentNumber, courseId);
+            at += length;
+        }
+        return at;
+    }
+
+    private static boolean checksumMatches(ByteBuffer log, CRC32 crc, int at, int length) {
+        ByteBuffer body = log.duplicate();
+        body.position(at).limit(at + length - CRC_BYTES);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue() == log.getInt(at + length - CRC_BYTES);
+    }
+
+    private static String text(ByteBuffer log, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = log.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void apply(int day, byte outcome, String studentNumber, String courseId) {
+        records++;
+        oldestDay = Math.min(oldestDay, day);
+        remember(day, outcome, studentNumber, courseId);
+    }
+
+    private void remember(int day, byte outcome, String studentNumber, String courseId) {
+        if (day == today && outcome == SIGNED && signed.add(key(day, studentNumber, courseId))) {
+            signedToday++;
+        }
+    }
+
+    /**
+     * Make a later day today: the previous day's keys are dropped and the new day's successes already
+     * in the log are loaded. Records stay in the file until {@link #compactBefore} runs.
+     */
+    private void advanceTo(int day) {
+        if (day <= today) {
+            return;
+        }
+        today = day;
+        signedToday = 0;
+        signed.clear();
+        if (map != null) {
+            scan(map, this::remember);
+        }
+    }
+
+    /**
+     * True if a sign-in for this course already succeeded, in this run or an earlier one
+     */
+    synchronized boolean isSigned(String studentNumber, Course course) {
+        int day = dayOf(course);
+        advanceTo(day);
+        return day == today && signed.contains(key(day, studentNumber, course.id));
+    }
+
+    /**
+     * Append the final outcome of a sign-in; failures are kept for the record and do not block a retry
+     */
+    synchronized void record(String studentNumber, Course course, byte outcome) {
+        if (map == null) {
+            return;
+        }
+        append(dayOf(course), outcome, studentNumber, course.id);
+    }
+
+    private void append(int day, byte outcome, String studentNumber, String courseSchedId) {
+        advanceTo(day);
+        byte[] student = studentNumber.getBytes(StandardCharsets.UTF_8);
+        byte[] courseId = courseSchedId.getBytes(StandardCharsets.UTF_8);
+        if (student.length > 0xff || courseId.length > 0xff) {
+            Log.warn("signin_log", null, "学号或课程编号过长，未写入打卡记录");
+            return;
+        }
+        int length = HEADER_BYTES + 1 + student.length + 1 + courseId.length + CRC_BYTES;
+        try {
+            ensureCapacity(length);
+        } catch (IOException e) {
+            Log.error("signin_log", null, e, "扩展打卡记录文件失败: {}", e.getMessage());
+            // Still known for the rest of this run
+            apply(day, outcome, studentNumber, courseSchedId);
+            return;
+        }
+        ByteBuffer out = map.duplicate();
+        out.position(position);
+        out.putShort((short) length).putInt(day).put(outcome)
+                .put((byte) student.length).put(student)
+                .put((byte) courseId.length).put(courseId);
+        ByteBuffer body = map.duplicate();
+        body.position(position).limit(out.position());
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        out.putInt((int) crc.getValue());
+        position += length;
+        dirty = true;
+        apply(day, outcome, studentNumber, courseSchedId);
+    }
+
+    /**
+     * Adopt today's successful sign-ins from the other instances' logs for the accounts the filter
+     * accepts, i.e. those of slots this instance just took over, so the new owner does not sign those
+     * courses again. The other logs are only read, since their instance may still be writing; what is
+     * adopted is appended here as well, so it survives a restart. Returns the number adopted.
+     */
+    synchronized int adoptPeers(Predicate<String> studentNumbers) throws IOException {
+        if (map == null || instance == null) {
+            return 0;
+        }
+        String name = file.getFileName().toString();
+        int at = name.indexOf(instance);
+        if (at < 0) {
+            return 0;
+        }
+        String prefix = name.substring(0, at);
+        String suffix = name.substring(at + instance.length());
+        Path dir = file.toAbsolutePath().getParent();
+        int before = signedToday;
+        try (DirectoryStream<Path> peers = Files.newDirectoryStream(dir, peer -> {
+            String peerName = peer.getFileName().toString();
+            return peerName.length() > prefix.length() + suffix.length() && peerName.startsWith(prefix)
+                    && peerName.endsWith(suffix) && !peerName.equals(name);
+        })) {
+            for (Path peer : peers) {
+                adopt(peer, studentNumbers);
+            }
+        }
+        return signedToday - before;
+    }
+
+    private void adopt(Path peer, Predicate<String> studentNumbers) throws IOException {
+        try (FileChannel peerChannel = FileChannel.open(peer, StandardOpenOption.READ)) {
+            long size = peerChannel.size();
+            if (size == 0) {
+                return;
+            }
+            ByteBuffer log = peerChannel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+            scan(log, (day, outcome, studentNumber, courseId) -> {
+                if (day == today && outcome == SIGNED && studentNumbers.test(studentNumber)
+                        && !signed.contains(key(day, studentNumber, courseId))) {
+                    append(day, outcome, studentNumber, courseId);
+                }
+            });
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        // Keep a zero length after the last record as the end marker
+        if (position + length + 2 <= map.capacity()) {
+            return;
+        }
+        map.force();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, roundUp(map.capacity() + (long) length + GROW_BYTES));
+    }
+
+    /**
+     * Flush appended records to disk
+     */
+    synchronized void sync() {
+        if (map != null && dirty) {
+            map.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Flush the log and unmap it; later records are no longer written, and lookups answer from memory
+     */
+    synchronized void close() {
+        if (map == null) {
+            return;
+        }
+        map.force();
+        dirty = false;
+        map = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("signin_log", null, "关闭打卡记录文件失败: {}", e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * On a new day, drop records older than it. The kept records move to the front of the mapping and
+     * the rest is zeroed, in place rather than through a new file, because a mapped file cannot be
+     * replaced on Windows. Right after midnight nothing of the new day is usually kept.
+     */
+    synchronized void compactBefore(String dateStr) {
+        int day = Integer.parseInt(dateStr);
+        if (map == null || day == today && oldestDay >= day) {
+            return;
+        }
+        int before = records;
+        ByteBuffer kept = ByteBuffer.allocate(position);
+        for (int at = 0; at < position; ) {
+            int length = map.getShort(at) & 0xffff;
+            if (map.getInt(at + 2) >= day) {
+                ByteBuffer record = map.duplicate();
+                record.position(at).limit(at + length);
+                kept.put(record);
+            }
+            at += length;
+        }
+        kept.flip();
+        int end = position;
+        ByteBuffer out = map.duplicate();
+        out.put(kept);
+        for (int i = out.position(); i < end; i++) {
+            map.put(i, (byte) 0);
+        }
+        map.force();
+        dirty = false;
+
+        position = 0;
+        records = 0;
+        oldestDay = Integer.MAX_VALUE;
+        signedToday = 0;
+        signed.clear();
+        today = day;
+        replay();
+        Log.info("signin_log", null, "打卡记录已压缩，保留 {} 条，删除 {} 条", records, before - records);
+    }
+
+    synchronized int records() {
+        return records;
+    }
+
+    synchronized int signedToday() {
+        return signedToday;
+    }
+
+    synchronized String describe() {
+        if (map == null) {
+            return "打卡记录: 未打开";
+        }
+        return "打卡记录: " + records + " 条，今日已打卡 " + signedToday + " 次，文件 " + position / 1024 + " KB";
+    }
+
+    /**
+     * yyyyMMdd of the day a course takes place, from its classBeginTime
+     */
+    static int dayOf(Course course) {
+        String time = course.classBeginTime;
+        return Integer.parseInt(time.substring(0, 4) + time.substring(5, 7) + time.substring(8, 10));
+    }
+
+    private static long key(int day, String studentNumber, String courseId) {
+        return Hashing.hash64(day + "/" + studentNumber + "/" + courseId);
+    }
+
+    private static int roundUp(long size) {
+        long rounded = (size + GROW_BYTES - 1) / GROW_BYTES * GROW_BYTES;
+        if (rounded > Integer.MAX_VALUE) {
+            throw new IllegalStateException("打卡记录文件过大: " + size + " 字节");
+        }
+        return (int) rounded;
+    }
+
+    /**
+     * Open-addressing set of 64-bit keys; 0 marks a free slot, so key 0 is stored as 1
+     */
+    private static final class LongSet {
+        private long[] slots = new long[1024];
+        private int size;
+
+        boolean add(long key) {
+            if ((size + 1) * 2 > slots.length) {
+                grow();
+            }
+            if (insert(slots, key == 0 ? 1 : key)) {
+                size++;
+                return true;
+            }
+            return false;
+        }
+
+        boolean contains(long key) {
+            long k = key == 0 ? 1 : key;
+            int mask = slots.length - 1;
+            for (int i = (int) k & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == k) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void clear() {
+            slots = new long[1024];
+            size = 0;
+        }
+
+        private static boolean insert(long[] table, long key) {
+            int mask = table.length - 1;
+            int i = (int) key & mask;
+            while (table[i] != 0) {
+                if (table[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = key;
+            return true;
+        }
+
+        private void grow() {
+            long[] larger = new long[slots.length * 2];
+            for (long key : slots) {
+                if (key != 0) {
+                    insert(larger, key);
+                }
+            }
+            slots = larger;
+        }
+    }
+}
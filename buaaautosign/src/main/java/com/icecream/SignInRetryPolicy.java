@@ -0,0 +1,57 @@
+package com.icecream;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Short, jittered exponential backoff for sign-ins that failed or found scanning not yet open.
+ * Retries run on their own scheduler, so a waiting course never holds up other accounts.
+ */
+final class SignInRetryPolicy {
+    static final long INITIAL_DELAY_MILLIS = Config.longValue("autosign.retry.initialMillis", 5_000L);
+    static final long MAX_DELAY_MILLIS = Config.longValue("autosign.retry.maxMillis", 60_000L);
+
+    private static final ScheduledExecutorService RETRIES = Executors.newScheduledThreadPool(
+            Config.integer("autosign.retry.threads", 2), TickEngine.namedDaemonThreads("signin-retry"));
+    private static final AtomicInteger PENDING = new AtomicInteger();
+
+    private SignInRetryPolicy() {
+    }
+
+    /**
+     * Delay before the given retry (1 for the first): exponential growth capped at the maximum,
+     * with "equal jitter" so that accounts failing together do not retry together
+     */
+    static long delayFor(int retry) {
+        long ceiling = INITIAL_DELAY_MILLIS << Math.min(Math.max(0, retry - 1), 20);
+        long capped = Math.min(MAX_DELAY_MILLIS, ceiling);
+        long half = capped / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Schedule the retry unless it would land after the course ends.
+     * Returns false when the caller should give up.
+     */
+    static boolean schedule(int retry, long courseEndMillis, Runnable attempt) {
+        long delay = delayFor(retry);
+        if (AppClock.millis() + delay >= courseEndMillis) {
+            return false;
+        }
+        PENDING.incrementAndGet();
+        AppClock.schedule(RETRIES, () -> {
+            PENDING.decrementAndGet();
+            attempt.run();
+        }, delay);
+        return true;
+    }
+
+    /**
+     * Retries scheduled but not started yet
+     */
+    static int pending() {
+        return PENDING.get();
+    }
+}
@@ -0,0 +1,243 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Fans out one task per account on each tick, either waiting for all of them within the tick budget
+ * or handing them off without waiting; either way accounts not finished within the budget count as skipped
+ */
+final class TickEngine {
+    private final ExecutorService executor;
+    private final long budgetMillis;
+    private final String description;
+
+    TickEngine(ExecutorService executor, long budgetMillis, String description) {
+        this.executor = executor;
+        this.budgetMillis = budgetMillis;
+        this.description = description;
+    }
+
+    /**
+     * Build the engine from the autosign.tick.* system properties
+     */
+    static TickEngine fromConfig() {
+        if ("virtual".equalsIgnoreCase(Config.TICK_MODE)) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                return new TickEngine(virtual, Config.TICK_BUDGET_MILLIS, "虚拟线程");
+            }
+            Log.warn("tick", null, "当前 Java 版本不支持虚拟线程，改用线程池");
+        }
+        int threads = Math.max(1, Config.TICK_THREADS);
+        return new TickEngine(Executors.newFixedThreadPool(threads, namedDaemonThreads("tick-worker")),
+                Config.TICK_BUDGET_MILLIS, "线程池(" + threads + ")");
+    }
+
+    String describe() {
+        return description;
+    }
+
+    /**
+     * Run the task for every account and wait until all finish or the budget runs out.
+     * Accounts still busy from the previous tick are skipped rather than queued twice.
+     */
+    TickReport runTick(Collection<StudentAccount> accounts, Consumer<StudentAccount> task) {
+        long start = System.nanoTime();
+        List<AccountTask> tasks = new ArrayList<>(accounts.size());
+        int skipped = 0;
+
+        for (StudentAccount account : accounts) {
+            if (!account.busy.compareAndSet(false, true)) {
+                skipped++;
+                continue;
+            }
+            tasks.add(new AccountTask(account, task));
+        }
+
+        int completed = 0;
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks, budgetMillis, TimeUnit.MILLISECONDS);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                    completed++;
+                } catch (CancellationException e) {
+                    skipped++;
+                } catch (ExecutionException e) {
+                    // The per-account task already reports its own errors
+                    completed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            skipped += tasks.size() - completed;
+        } finally {
+            // Tasks cancelled before they started never reach their own finally
+            for (AccountTask accountTask : tasks) {
+                accountTask.releaseIfNotStarted();
+            }
+        }
+
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new TickReport(durationMillis, accounts.size(), completed, skipped);
+    }
+
+    /**
+     * Start the task for every account without waiting for it. Accounts still busy are skipped and handed
+     * to onSkipped; every started account is handed to onDone once its task has finished, however it ended.
+     * The returned future completes with the batch report after the last task, or when the budget runs out
+     * with the accounts still running counted as skipped; those are still handed to onDone when they finish.
+     */
+    CompletableFuture<TickReport> dispatch(Collection<StudentAccount> accounts, Consumer<StudentAccount> task,
+            Consumer<StudentAccount> onDone, Consumer<StudentAccount> onSkipped) {
+        long start = System.nanoTime();
+        List<StudentAccount> started = new ArrayList<>(accounts.size());
+        for (StudentAccount account : accounts) {
+            if (account.busy.compareAndSet(false, true)) {
+                started.add(account);
+            } else {
+                onSkipped.accept(account);
+            }
+        }
+
+        CompletableFuture<TickReport> batch = new CompletableFuture<>();
+        int total = accounts.size();
+        int busy = total - started.size();
+        AtomicInteger completed = new AtomicInteger();
+        Runnable finishOne = () -> {
+            if (completed.incrementAndGet() == started.size()) {
+                long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                batch.complete(new TickReport(durationMillis, total, started.size(), busy));
+            }
+        };
+        if (started.isEmpty()) {
+            batch.complete(new TickReport(0, total, 0, busy));
+            return batch;
+        }
+        CompletableFuture.delayedExecutor(budgetMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            int done = completed.get();
+            if (done < started.size()) {
+                batch.complete(new TickReport(budgetMillis, total, done, total - done));
+            }
+        });
+
+        for (StudentAccount account : started) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.accept(account);
+                    } catch (RuntimeException e) {
+                        // The per-account task already reports its own errors
+                    } finally {
+                        account.busy.set(false);
+                        try {
+                            onDone.accept(account);
+                        } finally {
+                            finishOne.run();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                account.busy.set(false);
+                finishOne.run();
+            }
+        }
+        return batch;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static ThreadFactory namedDaemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Works on one account and clears its busy flag afterwards, or when it is cancelled before it starts
+     */
+    private static final class AccountTask implements Callable<Void> {
+        private final StudentAccount account;
+        private final Consumer<StudentAccount> task;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        AccountTask(StudentAccount account, Consumer<StudentAccount> task) {
+            this.account = account;
+            this.task = task;
+        }
+
+        @Override
+        public Void call() {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                task.accept(account);
+            } finally {
+                account.busy.set(false);
+            }
+            return null;
+        }
+
+        void releaseIfNotStarted() {
+            if (claimed.compareAndSet(false, true)) {
+                account.busy.set(false);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a single tick
+     */
+    static final class TickReport {
+        final long durationMillis;
+        final int total;
+        final int completed;
+        final int skipped;
+
+        TickReport(long durationMillis, int total, int completed, int skipped) {
+            this.durationMillis = durationMillis;
+            this.total = total;
+            this.completed = completed;
+            this.skipped = skipped;
+        }
+
+        @Override
+        public String toString() {
+            return "耗时 " + durationMillis + " ms，共 " + total + " 个账户，完成 " + completed + " 个，跳过 " + skipped + " 个";
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.icecream;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token-bucket rate limiter plus AIMD concurrency limit for one upstream host.
+ * Errors or latency well above the observed baseline halve the concurrency limit and cut the rate;
+ * healthy responses grow both again, so throughput settles just below what the host tolerates.
+ * Requests that have to wait are let through earliest deadline first, whether their caller blocks
+ * or waits on a future.
+ */
+final class UpstreamLimiter {
+    static final UpstreamLimiter SSO = fromConfig("sso", 5, 0.5, 50, 8, 64);
+    static final UpstreamLimiter ICLASS_API = fromConfig("iclass-api", 10, 1, 100, 16, 128);
+    static final UpstreamLimiter ICLASS_SIGN = fromConfig("iclass-sign", 50, 5, 500, 64, 1024);
+
+    private static final List<UpstreamLimiter> ALL = Arrays.asList(SSO, ICLASS_API, ICLASS_SIGN);
+
+    // Grants queued futures once the bucket has refilled, when no release comes along to do it
+    private static final ScheduledExecutorService REFILLS =
+            Executors.newSingleThreadScheduledExecutor(TickEngine.namedDaemonThreads("limiter-refill"));
+
+    // Responses slower than this multiple of the baseline latency count as congestion
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // Latencies below this never count as congestion, however fast the baseline is
+    private static final long LATENCY_FLOOR_MILLIS = 500;
+    // Do not back off again within this period, one congestion event usually fails many requests at once
+    private static final long BACKOFF_COOLDOWN_MILLIS = 1000;
+
+    private final String name;
+    private final double minRate;
+    private final double maxRate;
+    private final int minLimit = 1;
+    private final int maxLimit;
+
+    private double rate; // permits per second
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private double limit; // concurrent requests
+    private int inFlight;
+    private double baselineLatency = -1;
+    private long lastBackoffMillis;
+    private long successes;
+    private long failures;
+    private long backoffs;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private long arrivals;
+    private boolean refillScheduled;
+
+    UpstreamLimiter(String name, double rate, double minRate, double maxRate, int limit, int maxLimit) {
+        this.name = name;
+        this.rate = rate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.limit = limit;
+        this.maxLimit = maxLimit;
+        this.tokens = Math.max(1, rate);
+    }
+
+    private static UpstreamLimiter fromConfig(String name, double rate, double minRate, double maxRate, int limit, int maxLimit) {
+        String prefix = "autosign.limit." + name + ".";
+        return new UpstreamLimiter(name,
+                Double.parseDouble(Config.string(prefix + "rate", String.valueOf(rate))),
+                Double.parseDouble(Config.string(prefix + "minRate", String.valueOf(minRate))),
+                Double.parseDouble(Config.string(prefix + "maxRate", String.valueOf(maxRate))),
+                Config.integer(prefix + "concurrency", limit),
+                Config.integer(prefix + "maxConcurrency", maxLimit));
+    }
+
+    /**
+     * The limiter guarding requests to this URI
+     */
+    static UpstreamLimiter forUri(URI uri) {
+        if (Endpoints.sameOrigin(uri, Endpoints.SSO)) {
+            return SSO;
+        }
+        return Endpoints.sameOrigin(uri, Endpoints.ICLASS_SIGN) ? ICLASS_SIGN : ICLASS_API;
+    }
+
+    static List<UpstreamLimiter> all() {
+        return ALL;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Block until both a rate token and a concurrency slot are free, behind every request with a deadline
+     */
+    void acquire() throws InterruptedException {
+        acquire(Long.MAX_VALUE);
+    }
+
+    /**
+     * Block until both a rate token and a concurrency slot are free. When requests queue up, the one
+     * with the earliest deadline (epoch millis) goes next, ties in arrival order.
+     */
+    synchronized void acquire(long deadlineMillis) throws InterruptedException {
+        Waiter self = null;
+        try {
+            while (true) {
+                refill();
+                boolean first = self == null ? waiters.isEmpty() : waiters.peek() == self;
+                if (first && inFlight < (int) limit && tokens >= 1) {
+                    tokens -= 1;
+                    inFlight++;
+                    if (self != null) {
+                        waiters.poll();
+                        // The next in line may fit as well
+                        notifyAll();
+                        grantLater();
+                    }
+                    return;
+                }
+                if (self == null) {
+                    self = new Waiter(deadlineMillis, arrivals++, null);
+                    waiters.add(self);
+                    continue;
+                }
+                long waitMillis = first && tokens < 1 ? (long) Math.ceil((1 - tokens) * 1000 / rate) : 100;
+                wait(Math.max(1, waitMillis));
+            }
+        } catch (InterruptedException e) {
+            waiters.remove(self);
+            notifyAll();
+            grantLater();
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link #acquire(long)}, but instead of blocking the caller returns a future that completes
+     * once the permit is granted. Dependent stages run on whichever thread frees the permit, so they
+     * should hand anything slow to their own executor.
+     */
+    CompletableFuture<Void> acquireAsync(long deadlineMillis) {
+        CompletableFuture<Void> granted = new CompletableFuture<>();
+        List<CompletableFuture<Void>> ready;
+        synchronized (this) {
+            waiters.add(new Waiter(deadlineMillis, arrivals++, granted));
+            ready = grantWaiting();
+        }
+        complete(ready);
+        return granted;
+    }
+
+    /**
+     * Give back a permit that was acquired but not used, without counting it as an outcome
+     */
+    void cancel() {
+        List<CompletableFuture<Void>> ready;
+        synchronized (this) {
+            inFlight--;
+            tokens = Math.min(Math.max(1, rate), tokens + 1);
+            notifyAll();
+            ready = grantWaiting();
+        }
+        complete(ready);
+    }
+
+    /**
+     * Report how a request went and adjust the rate and concurrency limit
+     */
+    void release(boolean success, long latencyMillis) {
+        List<CompletableFuture<Void>> ready;
+        synchronized (this) {
+            adapt(success, latencyMillis);
+            notifyAll();
+            ready = grantWaiting();
+        }
+        complete(ready);
+    }
+
+    private void adapt(boolean success, long latencyMillis) {
+        inFlight--;
+        boolean slow = baselineLatency > 0 && latencyMillis > LATENCY_FLOOR_MILLIS
+                && latencyMillis > baselineLatency * LATENCY_TOLERANCE;
+
+        if (success) {
+            successes++;
+            // Baseline follows improvements quickly and degradations slowly
+            baselineLatency = baselineLatency < 0 ? latencyMillis
+                    : latencyMillis < baselineLatency ? latencyMillis : baselineLatency * 0.99 + latencyMillis * 0.01;
+        } else {
+            failures++;
+        }
+
+        if (!success || slow) {
+            long now = System.currentTimeMillis();
+            if (now - lastBackoffMillis >= BACKOFF_COOLDOWN_MILLIS) {
+                lastBackoffMillis = now;
+                backoffs++;
+                limit = Math.max(minLimit, limit / 2);
+                rate = Math.max(minRate, rate * 0.7);
+            }
+        } else {
+            // Additive increase: about one more slot per full window of successes
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            rate = Math.min(maxRate, rate + 0.1);
+        }
+    }
+
+    /**
+     * Take permits for the queued futures at the head of the line while they fit. A blocked thread at
+     * the head is woken instead and takes its own; if only tokens are missing, a refill is scheduled.
+     * The futures are completed by the caller after leaving the lock.
+     */
+    private List<CompletableFuture<Void>> grantWaiting() {
+        List<CompletableFuture<Void>> ready = Collections.emptyList();
+        while (!waiters.isEmpty() && waiters.peek().future != null) {
+            refill();
+            if (inFlight >= (int) limit) {
+                break;
+            }
+            if (tokens < 1) {
+                if (!refillScheduled) {
+                    refillScheduled = true;
+                    long waitMillis = Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / rate));
+                    REFILLS.schedule(this::refilled, waitMillis, TimeUnit.MILLISECONDS);
+                }
+                break;
+            }
+            tokens -= 1;
+            inFlight++;
+            if (ready.isEmpty()) {
+                ready = new ArrayList<>();
+            }
+            ready.add(waiters.poll().future);
+        }
+        return ready;
+    }
+
+    private void refilled() {
+        List<CompletableFuture<Void>> ready;
+        synchronized (this) {
+            refillScheduled = false;
+            ready = grantWaiting();
+            if (!ready.isEmpty()) {
+                // A blocked thread may be next in line now
+                notifyAll();
+            }
+        }
+        complete(ready);
+    }
+
+    /**
+     * Let a queued future that is now at the head of the line have its turn, outside the lock
+     */
+    private void grantLater() {
+        if (!waiters.isEmpty() && waiters.peek().future != null) {
+            REFILLS.execute(this::refilled);
+        }
+    }
+
+    private static void complete(List<CompletableFuture<Void>> ready) {
+        for (CompletableFuture<Void> future : ready) {
+            future.complete(null);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastRefillNanos = now;
+        tokens = Math.min(Math.max(1, rate), tokens + elapsedSeconds * rate);
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized String describe() {
+        return String.format("%s: 速率 %.1f/秒，并发上限 %d，进行中 %d，排队 %d，成功 %d，失败 %d，退避 %d 次，基准延迟 %s",
+                name, rate, (int) limit, inFlight, waiters.size(), successes, failures, backoffs,
+                baselineLatency < 0 ? "-" : String.format("%.0f ms", baselineLatency));
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final long deadlineMillis;
+        final long arrival;
+        final CompletableFuture<Void> future; // null for a blocked thread
+
+        Waiter(long deadlineMillis, long arrival, CompletableFuture<Void> future) {
+            this.deadlineMillis = deadlineMillis;
+            this.arrival = arrival;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byDeadline = Long.compare(deadlineMillis, other.deadlineMillis);
+            return byDeadline != 0 ? byDeadline : Long.compare(arrival, other.arrival);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Priority-queue scheduler that wakes an account only when it has something to do,
+ * e.g. when one of its courses enters the sign-in window or a new day's schedule is due.
+ * Accounts that become due at the same moment are handed to the tick engine as one batch,
+ * earliest deadline first, so a backlog is worked off starting with the courses that end soonest.
+ */
+final class WakeupScheduler {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Wakeup> queue = new PriorityQueue<>();
+    private final Map<StudentAccount, Long> scheduled = new HashMap<>();
+
+    private final TickEngine tickEngine;
+    private final Consumer<StudentAccount> task;
+    private final ToLongBiFunction<StudentAccount, Long> planner;
+    private final ToLongBiFunction<StudentAccount, Long> deadline;
+    private Thread dispatcher;
+
+    /**
+     * @param planner returns the next wakeup time (epoch millis) of an account given the current time
+     * @param deadline returns when the most urgent work of an account at the given time must be done,
+     *                 Long.MAX_VALUE if it has none
+     */
+    WakeupScheduler(TickEngine tickEngine, Consumer<StudentAccount> task, ToLongBiFunction<StudentAccount, Long> planner,
+            ToLongBiFunction<StudentAccount, Long> deadline) {
+        this.tickEngine = tickEngine;
+        this.task = task;
+        this.planner = planner;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Wake the account at the given time, replacing any earlier plan for it
+     */
+    void schedule(StudentAccount account, long wakeAtMillis) {
+        lock.lock();
+        try {
+            scheduled.put(account, wakeAtMillis);
+            queue.add(new Wakeup(wakeAtMillis, account));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void scheduleNow(StudentAccount account) {
+        schedule(account, AppClock.millis());
+    }
+
+    /**
+     * Recompute the next wakeup of an account from its current schedule; a planner result of
+     * Long.MAX_VALUE means the account needs no further wakeups here
+     */
+    void reschedule(StudentAccount account) {
+        long now = AppClock.millis();
+        long next = planner.applyAsLong(account, now);
+        if (next == Long.MAX_VALUE) {
+            cancel(account);
+            return;
+        }
+        schedule(account, Math.max(now, next));
+    }
+
+    void cancel(StudentAccount account) {
+        lock.lock();
+        try {
+            scheduled.remove(account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Earliest pending wakeup, or Long.MAX_VALUE when nothing is scheduled
+     */
+    long nextWakeMillis() {
+        lock.lock();
+        try {
+            discardStale();
+            Wakeup head = queue.peek();
+            return head == null ? Long.MAX_VALUE : head.atMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Long scheduledFor(StudentAccount account) {
+        lock.lock();
+        try {
+            return scheduled.get(account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove and return every account whose wakeup is due at the given time, earliest deadline first.
+     * An account whose deadline at its wakeup time has already passed counts as a deadline miss.
+     */
+    List<StudentAccount> pollDue(long nowMillis) {
+        List<Wakeup> polled = new ArrayList<>();
+        lock.lock();
+        try {
+            discardStale();
+            while (!queue.isEmpty() && queue.peek().atMillis <= nowMillis) {
+                Wakeup wakeup = queue.poll();
+                scheduled.remove(wakeup.account);
+                polled.add(wakeup);
+                discardStale();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Ties keep wakeup order
+        Map<StudentAccount, Long> deadlines = new LinkedHashMap<>();
+        for (Wakeup wakeup : polled) {
+            if (deadline.applyAsLong(wakeup.account, wakeup.atMillis) <= nowMillis) {
+                Metrics.deadlineMiss();
+            }
+            deadlines.put(wakeup.account, deadline.applyAsLong(wakeup.account, nowMillis));
+        }
+        List<StudentAccount> due = new ArrayList<>(deadlines.keySet());
+        due.sort(Comparator.comparingLong(deadlines::get));
+        return due;
+    }
+
+    /**
+     * Hand every due account to the tick engine without waiting for it. Each account plans its next wakeup
+     * when its own task finishes; an account still busy from earlier work is looked at again shortly.
+     * Returns null when nothing was due, otherwise a future of the batch report.
+     */
+    CompletableFuture<TickEngine.TickReport> dispatchDue(long nowMillis) {
+        List<StudentAccount> due = pollDue(nowMillis);
+        if (due.isEmpty()) {
+            return null;
+        }
+        return tickEngine.dispatch(due, task, this::reschedule,
+                        account -> schedule(account, AppClock.millis() + TimeUnit.MINUTES.toMillis(1)))
+                .thenApply(report -> {
+                    Metrics.recordMillis(Metrics.Phase.TICK, report.durationMillis, report.skipped == 0);
+                    return report;
+                });
+    }
+
+    /**
+     * Run one batch of due accounts and wait until all of them have planned their next wakeups
+     */
+    TickEngine.TickReport runDue(long nowMillis) {
+        CompletableFuture<TickEngine.TickReport> batch = dispatchDue(nowMillis);
+        return batch == null ? null : batch.join();
+    }
+
+    void start() {
+        dispatcher = new Thread(this::dispatchLoop, "wakeup-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    private void dispatchLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                awaitNextDue();
+                // A slow batch must not hold back accounts that become due after it
+                CompletableFuture<TickEngine.TickReport> batch = dispatchDue(AppClock.millis());
+                if (batch != null) {
+                    batch.thenAccept(report -> Log.info("tick", null, "本轮检查完成：{}", report));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                Log.error("tick", null, e, "执行自动考勤过程中发生错误: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void awaitNextDue() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                discardStale();
+                Wakeup head = queue.peek();
+                long now = AppClock.millis();
+                if (head != null && head.atMillis <= now) {
+                    return;
+                }
+                if (head == null) {
+                    changed.await();
+                } else {
+                    changed.await(head.atMillis - now, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void discardStale() {
+        while (!queue.isEmpty()) {
+            Wakeup head = queue.peek();
+            Long current = scheduled.get(head.account);
+            if (current != null && current == head.atMillis) {
+                return;
+            }
+            queue.poll();
+        }
+    }
+
+    private static final class Wakeup implements Comparable<Wakeup> {
+        final long atMillis;
+        final StudentAccount account;
+
+        Wakeup(long atMillis, StudentAccount account) {
+            this.atMillis = atMillis;
+            this.account = account;
+        }
+
+        @Override
+        public int compareTo(Wakeup other) {
+            return Long.compare(atMillis, other.atMillis);
+        }
+    }
+}
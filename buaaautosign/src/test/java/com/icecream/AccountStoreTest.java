@@ -0,0 +1,107 @@
+package com.icecream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountStoreTest {
+    @TempDir
+    Path dir;
+
+    private AccountStore store() {
+        return new AccountStore(dir.resolve("student_accounts.json").toString(),
+                dir.resolve("student_accounts.journal").toString());
+    }
+
+    private Map<String, String> load() throws IOException {
+        Map<String, String> accounts = new LinkedHashMap<>();
+        AccountStore store = store();
+        store.load(accounts::put, accounts::remove);
+        store.close();
+        return accounts;
+    }
+
+    @Test
+    void journalReplaysOverSnapshot() throws IOException {
+        Files.write(dir.resolve("student_accounts.json"),
+                "{\"accounts\": [{\"student_number\": \"1\", \"password\": \"a\"}, {\"student_number\": \"2\", \"password\": \"b\"}]}"
+                        .getBytes(StandardCharsets.UTF_8));
+        AccountStore store = store();
+        store.add("3", "c");
+        store.remove("1");
+        store.add("2", "b2");
+        store.close();
+
+        Map<String, String> accounts = load();
+        assertEquals(2, accounts.size());
+        assertEquals("b2", accounts.get("2"));
+        assertEquals("c", accounts.get("3"));
+    }
+
+    @Test
+    void tornJournalLineIsCutOff() throws IOException {
+        AccountStore store = store();
+        store.add("1", "a");
+        store.close();
+        Path journal = dir.resolve("student_accounts.journal");
+        long intact = Files.size(journal);
+        Files.write(journal, "{\"op\":\"add\",\"student_num".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(Map.of("1", "a"), load());
+        assertEquals(intact, Files.size(journal));
+
+        AccountStore reopened = store();
+        reopened.add("2", "b");
+        reopened.close();
+        assertEquals(Map.of("1", "a", "2", "b"), load());
+    }
+
+    @Test
+    void compactionFoldsTheJournalIntoTheSnapshot() throws IOException {
+        AccountStore store = store();
+        store.add("1", "a");
+        store.add("2", "b");
+        store.remove("1");
+        store.compact();
+        assertFalse(Files.exists(dir.resolve("student_accounts.journal")));
+        assertEquals(Map.of("2", "b"), load());
+
+        // Appending after compaction starts a fresh journal
+        store.add("3", "c");
+        store.close();
+        assertTrue(Files.exists(dir.resolve("student_accounts.journal")));
+        assertEquals(Map.of("2", "b", "3", "c"), load());
+    }
+
+    @Test
+    void compactionMergesChangesOfOtherInstances() throws IOException {
+        AccountStore first = store();
+        AccountStore second = store();
+        first.add("1", "a");
+        second.add("2", "b");
+        second.remove("1");
+        first.add("3", "c");
+
+        first.compact();
+        assertFalse(Files.exists(dir.resolve("student_accounts.journal")));
+        assertTrue(Files.exists(dir.resolve("student_accounts.json")));
+        assertEquals(Map.of("2", "b", "3", "c"), load());
+
+        // The second instance still had the deleted journal open; its next change must not be lost
+        second.add("4", "d");
+        first.close();
+        second.close();
+        assertEquals(Map.of("2", "b", "3", "c", "4", "d"), load());
+    }
+}
@@ -0,0 +1,40 @@
+package com.icecream;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AppClockTest {
+    private static final ZoneId SHANGHAI = ZoneId.of("Asia/Shanghai");
+
+    @Test
+    void zoneViewSharesTimeAndTimers() {
+        // Four hours after 20:00 it is the 25th in Shanghai but still the 24th in UTC
+        long start = LocalDate.of(2025, 2, 24).atTime(20, 0).atZone(SHANGHAI).toInstant().toEpochMilli();
+        AppClock.Virtual clock = new AppClock.Virtual(start, SHANGHAI);
+        Clock utc = clock.withZone(ZoneOffset.UTC);
+        assertEquals(ZoneOffset.UTC, utc.getZone());
+        assertSame(clock, clock.withZone(SHANGHAI));
+
+        List<String> ran = new ArrayList<>();
+        ((AppClock.Virtual) utc).schedule(() -> ran.add("view"), start + 2_000);
+        clock.schedule(() -> ran.add("clock"), start + 1_000);
+        assertEquals(2, clock.pendingTimers());
+
+        clock.advanceTo(start + 3_000);
+        assertEquals(List.of("clock", "view"), ran);
+        assertEquals(start + 3_000, utc.millis());
+
+        ((AppClock.Virtual) utc).advanceTo(start + 3_600_000 * 4);
+        assertEquals(LocalDate.of(2025, 2, 25), LocalDate.now(clock));
+        assertEquals(LocalDate.of(2025, 2, 24), LocalDate.now(utc));
+    }
+}
@@ -0,0 +1,111 @@
+package com.icecream;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    private static final long OPEN_MILLIS = 100;
+
+    private HttpServer server;
+    private final AtomicInteger status = new AtomicInteger(503);
+    private final AtomicInteger probes = new AtomicInteger();
+    private final AtomicReference<String> probeMethod = new AtomicReference<>();
+    private String url;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/probe", exchange -> {
+            probeMethod.set(exchange.getRequestMethod());
+            probes.incrementAndGet();
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/probe";
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker("test", url, "POST", OPEN_MILLIS);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.record(false);
+        }
+        return breaker;
+    }
+
+    private void awaitProbes(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (probes.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Let the probe record its outcome
+        Thread.sleep(50);
+    }
+
+    @Test
+    void opensAfterConsecutiveFailuresOnly() {
+        CircuitBreaker breaker = new CircuitBreaker("test", url, "POST", 60_000);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.record(false);
+        }
+        breaker.record(true);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.record(false);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(), "a success resets the run of failures");
+
+        breaker.record(false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.allow());
+        assertEquals(1, breaker.rejected());
+        assertEquals(1, breaker.opens());
+
+        breaker.record(true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(), "only the probe closes an open breaker");
+    }
+
+    @Test
+    void failedAndUnhealthyProbesKeepItOpen() throws InterruptedException {
+        CircuitBreaker breaker = open();
+        awaitProbes(1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        // A client error means the endpoint does not serve the probe, not that it has recovered
+        status.set(404);
+        awaitProbes(2);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals("POST", probeMethod.get());
+    }
+
+    @Test
+    void healthyProbeClosesItAndRunsTheListener() throws InterruptedException {
+        CircuitBreaker breaker = open();
+        CountDownLatch closed = new CountDownLatch(1);
+        breaker.onClose(closed::countDown);
+        status.set(200);
+
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allow());
+        assertEquals(1, probes.get());
+    }
+}
@@ -0,0 +1,70 @@
+package com.icecream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CourseIndexTest {
+    private static final long LEAD = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Course MORNING = new Course("1", "高等数学", "2025-02-24 08:00:00", "2025-02-24 09:35:00");
+    private static final Course LONG_LAB = new Course("2", "物理实验", "2025-02-24 08:50:00", "2025-02-24 12:00:00");
+    private static final Course LATE_MORNING = new Course("3", "线性代数", "2025-02-24 09:50:00", "2025-02-24 11:25:00");
+    private static final Course AFTERNOON = new Course("4", "英语", "2025-02-24 14:00:00", "2025-02-24 15:35:00");
+
+    private static CourseIndex index() {
+        return CourseIndex.of(List.of(AFTERNOON, LATE_MORNING, MORNING, LONG_LAB), LEAD);
+    }
+
+    /**
+     * Ids of the active courses at the given instant, found the way sign-in checks find them
+     */
+    private static List<String> active(CourseIndex index, long nowMillis) {
+        List<String> ids = new ArrayList<>();
+        for (int i = index.activeFrom(nowMillis), to = index.activeTo(nowMillis); i < to; i++) {
+            if (index.isActive(i, nowMillis)) {
+                ids.add(index.get(i).id);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    void sortsByClassBeginAndOpensTheWindowEarly() {
+        CourseIndex index = index();
+        assertEquals(4, index.size());
+        assertSame(MORNING, index.get(0));
+        assertSame(AFTERNOON, index.get(3));
+        assertEquals(MORNING.beginMillis - LEAD, index.windowStart(0));
+        assertEquals(MORNING.endMillis, index.end(0));
+        assertEquals(2, index.indexOf("3"));
+        assertEquals(-1, index.indexOf("9"));
+    }
+
+    @Test
+    void findsOverlappingActiveCourses() {
+        CourseIndex index = index();
+        assertEquals(List.of(), active(index, MORNING.beginMillis - LEAD));
+        assertEquals(List.of("1"), active(index, MORNING.beginMillis - LEAD + 1));
+        assertEquals(List.of("1", "2"), active(index, LONG_LAB.beginMillis));
+        // The lab outlasts the course after it, which the running maximum of ends must not skip
+        assertEquals(List.of("2"), active(index, LATE_MORNING.endMillis));
+        assertEquals(List.of(), active(index, LONG_LAB.endMillis));
+        assertEquals(List.of("4"), active(index, AFTERNOON.beginMillis));
+    }
+
+    @Test
+    void emptyScheduleSharesTheEmptyIndex() {
+        CourseIndex index = CourseIndex.of(List.of(), LEAD);
+        assertSame(CourseIndex.EMPTY, index);
+        assertTrue(index.isEmpty());
+        assertFalse(index.activeTo(Long.MAX_VALUE) > 0);
+    }
+}
@@ -0,0 +1,57 @@
+package com.icecream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DayCoursesTest {
+    private static List<Course> courses(int count) {
+        List<Course> courses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            courses.add(new Course(String.valueOf(5000 + i), "课程" + i,
+                    String.format("2025-02-24 %02d:%02d:00", 8 + i / 60, i % 60), "2025-02-24 22:00:00"));
+        }
+        return courses;
+    }
+
+    @Test
+    void tracksMoreThanSixtyFourCourses() {
+        CourseIndex index = CourseIndex.of(courses(150), 0);
+        assertEquals(150, index.size());
+
+        DayCourses day = DayCourses.EMPTY.reload(index, true)
+                .withSigned(3).withSigned(70).withSigned(149)
+                .withSigning(100, true);
+        assertEquals(3, day.signedCount());
+        assertTrue(day.isSigned(149));
+        assertTrue(day.isSigning(100));
+        assertFalse(day.withSigning(100, false).anySigning());
+
+        long evening = index.get(149).beginMillis;
+        assertEquals(0, day.nextToSign(0, evening));
+        assertEquals(71, day.nextToSign(70, evening));
+        assertEquals(-1, day.nextToSign(149, evening));
+    }
+
+    @Test
+    void reloadKeepsFlagsByCourseId() {
+        List<Course> schedule = courses(100);
+        DayCourses day = DayCourses.EMPTY.reload(CourseIndex.of(schedule, 0), true)
+                .withSigned(80).withSigning(90, true);
+
+        // Dropping the first course shifts every position by one
+        DayCourses reloaded = day.reload(CourseIndex.of(schedule.subList(1, schedule.size()), 0), false);
+        assertTrue(reloaded.isSigned(79));
+        assertTrue(reloaded.isSigning(89));
+        assertEquals(1, reloaded.signedCount());
+
+        DayCourses nextDay = day.reload(CourseIndex.of(schedule, 0), true);
+        assertEquals(0, nextDay.signedCount());
+        assertFalse(nextDay.anySigning());
+    }
+}
@@ -0,0 +1,56 @@
+package com.icecream;
+
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LoginPageParserTest {
+    private static Cookie cookie(String name, String value) {
+        return new BasicClientCookie(name, value);
+    }
+
+    @Test
+    void readsExecutionFromTheLoginPage() throws IOException {
+        String page = "<html>\n<form>\n<input name=\"username\"/>\n"
+                + "<input name=\"execution\" value=\"e1s1-abc_DEF\"/>\n</form>\n</html>\n";
+        assertEquals("e1s1-abc_DEF", LoginPageParser.readExecution(new StringEntity(page, ContentType.TEXT_HTML)));
+    }
+
+    @Test
+    void missingExecutionIsNull() throws IOException {
+        String page = "<html>用户名或密码错误 name=\"execution\"</html>";
+        assertNull(LoginPageParser.readExecution(new StringEntity(page, ContentType.create("text/html", "UTF-8"))));
+        assertNull(LoginPageParser.readExecution(null));
+    }
+
+    @Test
+    void prefersTheNamedIpCookie() {
+        List<Cookie> cookies = List.of(
+                cookie("route", "http://10.0.0.1:8080/other"),
+                cookie(LoginPageParser.IP_COOKIE_NAME, "http://10.1.2.3:8443"));
+        assertEquals("http://10.1.2.3:8443", LoginPageParser.findCookieIp(cookies));
+    }
+
+    @Test
+    void fallsBackToAnyCookieHoldingAnAddress() {
+        List<Cookie> cookies = List.of(
+                cookie(LoginPageParser.IP_COOKIE_NAME, "garbage"),
+                cookie("route", "http://10.0.0.1:8080/other"));
+        assertEquals("http://10.0.0.1:8080", LoginPageParser.findCookieIp(cookies));
+        assertNull(LoginPageParser.findCookieIp(List.of(cookie("JSESSIONID", "abc"))));
+    }
+
+    @Test
+    void extractsLoginNameFromTheRedirect() {
+        assertEquals("1A2B3C", LoginPageParser.extractLoginName("https://iclass.example/?loginName=1A2B3C&x=1"));
+        assertNull(LoginPageParser.extractLoginName("https://iclass.example/?ticket=ST-1"));
+    }
+}
@@ -0,0 +1,101 @@
+package com.icecream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardCoordinatorTest {
+    private static final int SLOTS = 4;
+    private static final long LONG_LEASE = 60_000;
+
+    @TempDir
+    Path dir;
+
+    private static BitSet owned(ShardCoordinator coordinator) {
+        BitSet owned = new BitSet();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            // Any student number of the slot tells whether the coordinator owns it
+            for (int i = 0; ; i++) {
+                String studentNumber = String.valueOf(20370000 + i);
+                if (coordinator.slotOf(studentNumber) == slot) {
+                    owned.set(slot, coordinator.owns(studentNumber));
+                    break;
+                }
+            }
+        }
+        return owned;
+    }
+
+    @Test
+    void ringSpreadsAccountsOverEverySlotAndIsStable() {
+        ShardCoordinator ring = new ShardCoordinator(SLOTS, "a", dir, LONG_LEASE);
+        ShardCoordinator again = new ShardCoordinator(SLOTS, "b", dir, LONG_LEASE);
+        Map<Integer, Integer> perSlot = new HashMap<>();
+        for (int i = 0; i < 4000; i++) {
+            String studentNumber = String.valueOf(20370000 + i);
+            int slot = ring.slotOf(studentNumber);
+            assertEquals(slot, again.slotOf(studentNumber), "every instance must agree on the slot");
+            perSlot.merge(slot, 1, Integer::sum);
+        }
+        assertEquals(SLOTS, perSlot.size());
+        for (int count : perSlot.values()) {
+            assertTrue(count > 500 && count < 1500, "uneven spread: " + perSlot);
+        }
+    }
+
+    @Test
+    void disabledShardingOwnsEverything() {
+        ShardCoordinator single = new ShardCoordinator(1, "a", dir, LONG_LEASE);
+        assertFalse(single.enabled());
+        assertTrue(single.owns("20370001"));
+    }
+
+    @Test
+    void instancesSplitTheSlotsFairly() throws IOException {
+        ShardCoordinator a = new ShardCoordinator(SLOTS, "a", dir, LONG_LEASE);
+        ShardCoordinator b = new ShardCoordinator(SLOTS, "b", dir, LONG_LEASE);
+        BitSet lostByA = new BitSet();
+        a.setListener((gained, lost) -> lostByA.or(lost));
+
+        a.renew();
+        assertEquals(SLOTS, owned(a).cardinality());
+
+        // b's leases are all held; a hands back its extras once it sees b, and b takes them
+        b.renew();
+        assertEquals(0, owned(b).cardinality());
+        a.renew();
+        b.renew();
+        BitSet ofA = owned(a);
+        BitSet ofB = owned(b);
+        assertEquals(SLOTS / 2, ofA.cardinality());
+        assertEquals(SLOTS / 2, ofB.cardinality());
+        assertFalse(ofA.intersects(ofB));
+        assertEquals(ofB, lostByA);
+    }
+
+    @Test
+    void expiredLeasesAreTakenOver() throws Exception {
+        ShardCoordinator a = new ShardCoordinator(SLOTS, "a", dir, 200);
+        ShardCoordinator b = new ShardCoordinator(SLOTS, "b", dir, 200);
+        a.renew();
+        b.renew();
+        assertEquals(0, owned(b).cardinality());
+
+        // a stops renewing, as if it had died
+        Thread.sleep(400);
+        BitSet gainedByB = new BitSet();
+        b.setListener((gained, lost) -> gainedByB.or(gained));
+        b.renew();
+        assertEquals(SLOTS, owned(b).cardinality());
+        assertEquals(SLOTS, gainedByB.cardinality());
+    }
+}
@@ -0,0 +1,145 @@
+package com.icecream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SignInLogTest {
+    private static final Course MONDAY = new Course("1001", "高等数学", "2025-02-24 08:00:00", "2025-02-24 09:35:00");
+    private static final Course MONDAY_LATE = new Course("1002", "大学物理", "2025-02-24 14:00:00", "2025-02-24 15:35:00");
+    private static final Course TUESDAY = new Course("1003", "线性代数", "2025-02-25 08:00:00", "2025-02-25 09:35:00");
+
+    @TempDir
+    Path dir;
+
+    private SignInLog open(String dateStr) throws IOException {
+        SignInLog log = new SignInLog(dir.resolve("sign_in_log.dat").toString(), null);
+        log.open(dateStr);
+        return log;
+    }
+
+    @Test
+    void replayRestoresTodaysSignInsOnly() throws IOException {
+        SignInLog log = open("20250224");
+        log.record("20370001", MONDAY, SignInLog.SIGNED);
+        log.record("20370001", MONDAY_LATE, SignInLog.FAILED);
+        log.record("20370002", MONDAY_LATE, SignInLog.SIGNED);
+        log.sync();
+
+        SignInLog reopened = open("20250224");
+        assertTrue(reopened.isSigned("20370001", MONDAY));
+        assertFalse(reopened.isSigned("20370001", MONDAY_LATE), "a failure must not block a retry");
+        assertTrue(reopened.isSigned("20370002", MONDAY_LATE));
+        assertFalse(reopened.isSigned("20370002", MONDAY));
+    }
+
+    @Test
+    void tornTailIsDroppedAndLaterAppendsSurvive() throws IOException {
+        SignInLog log = open("20250224");
+        log.record("20370001", MONDAY, SignInLog.SIGNED);
+        log.record("20370002", MONDAY, SignInLog.SIGNED);
+        log.sync();
+
+        // Corrupt the second record as a crash halfway through writing it would
+        Path file = dir.resolve("sign_in_log.dat");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(2).order(ByteOrder.BIG_ENDIAN);
+            channel.read(length, 0);
+            int second = length.getShort(0) & 0xffff;
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), second + 10);
+        }
+
+        SignInLog reopened = open("20250224");
+        assertTrue(reopened.isSigned("20370001", MONDAY));
+        assertFalse(reopened.isSigned("20370002", MONDAY));
+        reopened.record("20370003", MONDAY, SignInLog.SIGNED);
+        reopened.sync();
+
+        SignInLog again = open("20250224");
+        assertTrue(again.isSigned("20370001", MONDAY));
+        assertTrue(again.isSigned("20370003", MONDAY), "records appended after a wiped tail must replay");
+        assertFalse(again.isSigned("20370002", MONDAY));
+    }
+
+    @Test
+    void compactionKeepsOnlyTheNewDay() throws IOException {
+        SignInLog log = open("20250224");
+        log.record("20370001", MONDAY, SignInLog.SIGNED);
+        log.record("20370001", TUESDAY, SignInLog.SIGNED);
+        log.record("20370002", MONDAY_LATE, SignInLog.SIGNED);
+
+        log.compactBefore("20250225");
+        assertTrue(log.isSigned("20370001", TUESDAY));
+        assertFalse(log.isSigned("20370001", MONDAY));
+        assertEquals(1, log.records());
+
+        log.record("20370002", TUESDAY, SignInLog.SIGNED);
+        log.sync();
+        SignInLog reopened = open("20250225");
+        assertTrue(reopened.isSigned("20370001", TUESDAY));
+        assertTrue(reopened.isSigned("20370002", TUESDAY));
+        assertEquals(2, reopened.records());
+        assertEquals(2, reopened.signedToday());
+    }
+
+    @Test
+    void todayFollowsTheCoursesBeforeCompaction() throws IOException {
+        SignInLog log = open("20250224");
+        log.record("20370001", MONDAY, SignInLog.SIGNED);
+        log.record("20370001", TUESDAY, SignInLog.SIGNED);
+        assertTrue(log.isSigned("20370001", TUESDAY), "a sign-in of the next day is remembered without compaction");
+        assertEquals(1, log.signedToday());
+        assertEquals(2, log.records());
+
+        log.sync();
+        SignInLog reopened = open("20250224");
+        assertTrue(reopened.isSigned("20370001", MONDAY));
+        assertTrue(reopened.isSigned("20370001", TUESDAY), "the new day's records are loaded from the log");
+        assertFalse(reopened.isSigned("20370001", MONDAY), "yesterday's courses are over");
+    }
+
+    @Test
+    void closeFlushesAndStopsWriting() throws IOException {
+        SignInLog log = open("20250224");
+        log.record("20370001", MONDAY, SignInLog.SIGNED);
+        log.close();
+        log.record("20370002", MONDAY, SignInLog.SIGNED);
+        log.sync();
+        log.close();
+        assertTrue(log.isSigned("20370001", MONDAY));
+
+        SignInLog reopened = open("20250224");
+        assertTrue(reopened.isSigned("20370001", MONDAY));
+        assertFalse(reopened.isSigned("20370002", MONDAY));
+        assertEquals(1, reopened.records());
+    }
+
+    @Test
+    void adoptsTodaysSignInsFromPeerLogs() throws IOException {
+        SignInLog peer = new SignInLog(dir.resolve("sign_in_log-b.dat").toString(), "b");
+        peer.open("20250224");
+        peer.record("20370001", MONDAY, SignInLog.SIGNED);
+        peer.record("20370002", MONDAY, SignInLog.SIGNED);
+        peer.record("20370003", MONDAY, SignInLog.FAILED);
+        peer.sync();
+
+        SignInLog log = new SignInLog(dir.resolve("sign_in_log-a.dat").toString(), "a");
+        log.open("20250224");
+        assertEquals(1, log.adoptPeers(studentNumber -> !studentNumber.equals("20370002")));
+        assertTrue(log.isSigned("20370001", MONDAY));
+        assertFalse(log.isSigned("20370002", MONDAY));
+        assertFalse(log.isSigned("20370003", MONDAY));
+        assertEquals(1, log.adoptPeers(studentNumber -> true), "what was adopted before is not adopted twice");
+        assertTrue(log.isSigned("20370002", MONDAY));
+    }
+}
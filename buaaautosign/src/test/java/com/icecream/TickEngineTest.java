@@ -0,0 +1,88 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TickEngineTest {
+    private final TickEngine engine = new TickEngine(Executors.newFixedThreadPool(4), 200, "test");
+
+    @AfterEach
+    void shutdown() {
+        engine.shutdown();
+    }
+
+    @Test
+    void dispatchSkipsBusyAccountsAndHandsBackEveryStartedOne() throws Exception {
+        StudentAccount idle = new StudentAccount("1", "a");
+        StudentAccount busy = new StudentAccount("2", "b");
+        busy.busy.set(true);
+        Set<StudentAccount> done = ConcurrentHashMap.newKeySet();
+        Set<StudentAccount> skipped = ConcurrentHashMap.newKeySet();
+
+        TickEngine.TickReport report = engine.dispatch(List.of(idle, busy), account -> { }, done::add, skipped::add)
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(Set.of(idle), done);
+        assertEquals(Set.of(busy), skipped);
+        assertEquals(1, report.completed);
+        assertEquals(1, report.skipped);
+        assertFalse(idle.busy.get());
+        assertTrue(busy.busy.get(), "a busy account belongs to whoever set the flag");
+    }
+
+    @Test
+    void anErrorInTheTaskStillFinishesTheAccountAndTheBatch() throws Exception {
+        StudentAccount account = new StudentAccount("1", "a");
+        CountDownLatch done = new CountDownLatch(1);
+
+        TickEngine.TickReport report = engine.dispatch(List.of(account), a -> {
+            throw new AssertionError("boom");
+        }, a -> done.countDown(), a -> { }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, report.completed);
+        assertFalse(account.busy.get());
+    }
+
+    @Test
+    void accountsStillRunningWhenTheBudgetEndsCountAsSkipped() throws Exception {
+        StudentAccount fast = new StudentAccount("1", "a");
+        StudentAccount slow = new StudentAccount("2", "b");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowDone = new CountDownLatch(1);
+
+        TickEngine.TickReport report = engine.dispatch(List.of(fast, slow), account -> {
+            if (account == slow) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, account -> {
+            if (account == slow) {
+                slowDone.countDown();
+            }
+        }, account -> { }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, report.completed);
+        assertEquals(1, report.skipped);
+        assertTrue(slow.busy.get());
+
+        release.countDown();
+        assertTrue(slowDone.await(5, TimeUnit.SECONDS), "a late account is still handed back");
+        assertFalse(slow.busy.get());
+    }
+}
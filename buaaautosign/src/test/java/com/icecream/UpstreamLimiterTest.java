@@ -0,0 +1,93 @@
+package com.icecream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpstreamLimiterTest {
+    private static UpstreamLimiter limiter() {
+        return new UpstreamLimiter("test", 10, 1, 100, 8, 64);
+    }
+
+    @Test
+    void failureHalvesTheLimitAndCutsTheRateOncePerCooldown() throws InterruptedException {
+        UpstreamLimiter limiter = limiter();
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release(false, 20);
+        assertEquals(4, limiter.limit());
+        assertEquals(7.0, limiter.rate(), 1e-9);
+
+        // The same congestion event failing a second request does not back off again
+        limiter.release(false, 20);
+        assertEquals(4, limiter.limit());
+        assertEquals(7.0, limiter.rate(), 1e-9);
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    void successesGrowTheLimitAdditively() throws InterruptedException {
+        UpstreamLimiter limiter = limiter();
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+            limiter.release(true, 20);
+        }
+        assertEquals(10.8, limiter.rate(), 1e-9);
+        assertEquals(8, limiter.limit(), "one slot takes about a full window of successes");
+        limiter.acquire();
+        limiter.release(true, 20);
+        assertEquals(9, limiter.limit());
+    }
+
+    @Test
+    void responsesFarAboveTheBaselineCountAsCongestion() throws InterruptedException {
+        UpstreamLimiter limiter = limiter();
+        limiter.acquire();
+        limiter.release(true, 300);
+        limiter.acquire();
+        limiter.release(true, 450);
+        assertTrue(limiter.limit() >= 8, "below the latency floor nothing is slow");
+
+        limiter.acquire();
+        limiter.release(true, 2_000);
+        assertEquals(4, limiter.limit());
+    }
+
+    @Test
+    void cancelGivesThePermitBackWithoutAdapting() throws InterruptedException {
+        UpstreamLimiter limiter = limiter();
+        limiter.acquire();
+        limiter.cancel();
+        assertEquals(0, limiter.inFlight());
+        assertEquals(8, limiter.limit());
+        assertEquals(10.0, limiter.rate(), 1e-9);
+    }
+
+    @Test
+    void waitingFuturesAreGrantedEarliestDeadlineFirst() throws InterruptedException {
+        UpstreamLimiter limiter = new UpstreamLimiter("test", 100, 1, 1000, 1, 1);
+        limiter.acquire();
+        CompletableFuture<Void> late = limiter.acquireAsync(300);
+        CompletableFuture<Void> soon = limiter.acquireAsync(100);
+        CompletableFuture<Void> middle = limiter.acquireAsync(200);
+        CompletableFuture<Void> soonToo = limiter.acquireAsync(100);
+        List<CompletableFuture<Void>> expected = List.of(soon, soonToo, middle, late);
+        for (CompletableFuture<Void> future : expected) {
+            assertFalse(future.isDone(), "nothing is granted while the only slot is taken");
+        }
+
+        for (int i = 0; i < expected.size(); i++) {
+            limiter.release(true, 20);
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(j <= i, expected.get(j).isDone(), "after release " + i + ", future " + j);
+            }
+        }
+        limiter.release(true, 20);
+        assertEquals(0, limiter.inFlight());
+    }
+}
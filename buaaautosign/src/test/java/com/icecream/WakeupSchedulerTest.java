@@ -0,0 +1,70 @@
+package com.icecream;
+
+import com.icecream.AttendanceSystem.StudentAccount;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class WakeupSchedulerTest {
+    private static WakeupScheduler scheduler() {
+        return new WakeupScheduler(null, account -> { }, (account, now) -> Long.MAX_VALUE,
+                (account, now) -> Long.MAX_VALUE);
+    }
+
+    @Test
+    void pollsOnlyDueAccountsInWakeupOrder() {
+        WakeupScheduler scheduler = scheduler();
+        StudentAccount first = new StudentAccount("1", "a");
+        StudentAccount second = new StudentAccount("2", "b");
+        StudentAccount later = new StudentAccount("3", "c");
+        scheduler.schedule(second, 2_000);
+        scheduler.schedule(first, 1_000);
+        scheduler.schedule(later, 9_000);
+
+        assertEquals(1_000, scheduler.nextWakeMillis());
+        assertEquals(List.of(first, second), scheduler.pollDue(5_000));
+        assertEquals(9_000, scheduler.nextWakeMillis());
+        assertEquals(List.of(), scheduler.pollDue(5_000));
+    }
+
+    @Test
+    void reschedulingReplacesTheEarlierPlan() {
+        WakeupScheduler scheduler = scheduler();
+        StudentAccount account = new StudentAccount("1", "a");
+        scheduler.schedule(account, 1_000);
+        scheduler.schedule(account, 8_000);
+
+        assertEquals(List.of(), scheduler.pollDue(5_000));
+        assertEquals(8_000L, scheduler.scheduledFor(account));
+
+        scheduler.cancel(account);
+        assertNull(scheduler.scheduledFor(account));
+        assertEquals(Long.MAX_VALUE, scheduler.nextWakeMillis());
+    }
+
+    @Test
+    void dueAccountsGoEarliestDeadlineFirstAndCountMisses() {
+        StudentAccount relaxed = new StudentAccount("1", "a");
+        StudentAccount urgent = new StudentAccount("2", "b");
+        StudentAccount tieFirst = new StudentAccount("3", "c");
+        StudentAccount tieSecond = new StudentAccount("4", "d");
+        StudentAccount missed = new StudentAccount("5", "e");
+        Map<StudentAccount, Long> deadlines = Map.of(relaxed, 90_000L, urgent, 6_000L,
+                tieFirst, 20_000L, tieSecond, 20_000L, missed, 2_500L);
+        WakeupScheduler scheduler = new WakeupScheduler(null, account -> { }, (account, now) -> Long.MAX_VALUE,
+                (account, now) -> deadlines.get(account));
+        scheduler.schedule(relaxed, 1_000);
+        scheduler.schedule(tieFirst, 2_000);
+        scheduler.schedule(urgent, 3_000);
+        scheduler.schedule(missed, 3_000);
+        scheduler.schedule(tieSecond, 4_000);
+
+        long missesBefore = Metrics.deadlineMisses();
+        assertEquals(List.of(missed, urgent, tieFirst, tieSecond, relaxed), scheduler.pollDue(5_000));
+        assertEquals(1, Metrics.deadlineMisses() - missesBefore, "only the course already over when it woke was missed");
+    }
+}